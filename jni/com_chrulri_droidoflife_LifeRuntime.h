@@ -11,15 +11,23 @@ extern "C" {
 #define com_chrulri_droidoflife_LifeRuntime_OK 0L
 #undef com_chrulri_droidoflife_LifeRuntime_E_INVALID_SIZE
 #define com_chrulri_droidoflife_LifeRuntime_E_INVALID_SIZE 1L
+#undef com_chrulri_droidoflife_LifeRuntime_E_INVALID_DENSITY
+#define com_chrulri_droidoflife_LifeRuntime_E_INVALID_DENSITY 2L
+#undef com_chrulri_droidoflife_LifeRuntime_E_NO_RUNTIME
+#define com_chrulri_droidoflife_LifeRuntime_E_NO_RUNTIME 3L
+#undef com_chrulri_droidoflife_LifeRuntime_MAX_WORLD_SIZE
+#define com_chrulri_droidoflife_LifeRuntime_MAX_WORLD_SIZE 536870912L
+#undef com_chrulri_droidoflife_LifeRuntime_DENSITY_ONE
+#define com_chrulri_droidoflife_LifeRuntime_DENSITY_ONE 65536L
 #undef com_chrulri_droidoflife_LifeRuntime_SETTINGS_SHOW_DEATHBIRTH
 #define com_chrulri_droidoflife_LifeRuntime_SETTINGS_SHOW_DEATHBIRTH 0L
 /*
  * Class:     com_chrulri_droidoflife_LifeRuntime
  * Method:    nRuntimeCreate
- * Signature: (II)I
+ * Signature: (IIJILjava/lang/String;)I
  */
 JNIEXPORT jint JNICALL Java_com_chrulri_droidoflife_LifeRuntime_nRuntimeCreate
-  (JNIEnv *, jclass, jint, jint);
+  (JNIEnv *, jclass, jint, jint, jlong, jint, jstring);
 
 /*
  * Class:     com_chrulri_droidoflife_LifeRuntime
@@ -37,6 +45,14 @@ JNIEXPORT void JNICALL Java_com_chrulri_droidoflife_LifeRuntime_nRuntimeIterate
 JNIEXPORT void JNICALL Java_com_chrulri_droidoflife_LifeRuntime_nRuntimeDestroy
   (JNIEnv *, jclass);
 
+/*
+ * Class:     com_chrulri_droidoflife_LifeRuntime
+ * Method:    nRuntimeState
+ * Signature: (Ljava/nio/ByteBuffer;Ljava/nio/ByteBuffer;)I
+ */
+JNIEXPORT jint JNICALL Java_com_chrulri_droidoflife_LifeRuntime_nRuntimeState
+  (JNIEnv *, jclass, jobject, jobject);
+
 /*
  * Class:     com_chrulri_droidoflife_LifeRuntime
  * Method:    nRuntimeBitmap
@@ -19,8 +19,13 @@
 #include <android/log.h>
 #include <android/bitmap.h>
 #include <errno.h>
+#include <fcntl.h>
+#include <stdint.h>
 #include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
 #include <pthread.h>
+#include <sys/mman.h>
 
 #include "com_chrulri_droidoflife_LifeRuntime.h"
 
@@ -47,6 +52,11 @@ typedef uint8_t cell_t;
 typedef cell_t* cbuf_t;
 #define BITS	(sizeof(cell_t)*8)
 
+#define WORD_BYTES			sizeof(uint64_t)
+#define DENSITY_BITS		16		// fixed point precision of the seeding density
+#define SEED_MAX_THREADS	16
+#define SEED_MIN_WORDS		(1 << 16)	// minimal amount of words worth an own seeding thread
+
 /* *** VARIABLES *** */
 static pthread_mutex_t s_mutex;
 static cbuf_t s_cbuf = 0;		// current cell buffer
@@ -56,6 +66,16 @@ static int s_width = 0;			// world width
 static int s_height = 0;		// world height
 static size_t s_bufsize = 0;	// cell buffer size: w*h/sizeof(cbuf)
 static size_t s_worldsize = 0;	// world size: w*h
+static void *s_mapping = 0;		// file backed storage of all cell buffers (if any)
+static size_t s_mapsize = 0;	// size of the file backed storage
+
+struct seed_job {
+	cbuf_t buf;					// cell buffer to seed
+	size_t from;				// first word (64 cells) to seed
+	size_t to;					// first word not to seed anymore
+	uint64_t seed;
+	uint32_t density;
+};
 
 /* *** UTILITIES *** */
 static inline void lockRuntime() {
@@ -75,9 +95,17 @@ static inline void unlockRuntime() {
 static inline void destroyRuntime() {
 	LOGD("destroyRuntime() called");
 
-	free(s_cbuf);
-	free(s_cbuf_s);
-	free(s_cbuf_l);
+	if(s_mapping) {
+		if(munmap(s_mapping, s_mapsize)) {
+			LOGE("munmap(%d) failed (0x%x)", s_mapsize, errno);
+		}
+		s_mapping = 0;
+		s_mapsize = 0;
+	} else {
+		free(s_cbuf);
+		free(s_cbuf_s);
+		free(s_cbuf_l);
+	}
 	s_cbuf = s_cbuf_s = s_cbuf_l = 0;
 	s_bufsize = s_worldsize = 0;
 	s_width = s_height = 0;
@@ -86,25 +114,173 @@ static inline void destroyRuntime() {
 }
 
 static inline uint isBitSet(cbuf_t ptr, int offset) {
-//	LOGD("isBitSet(%d, %d) called", ptr, offset);
-	int t, poff, off;
-	if(offset < 0) {
-		offset = -offset;
-		poff = -(offset / BITS + 1);
-		off = BITS - (offset % BITS);
-//		LOGD(" offset<0: off=%d, poff=%d", off, poff);
-		t = CHECK_BIT(*(ptr + poff), off);
-	} else if (offset < 8) {
-//		LOGD(" offset<8: ---");
-		t = CHECK_BIT(*ptr, offset);
-	} else {
-		poff = offset / BITS;
-		off = offset % BITS;
-//		LOGD(" ---: off=%d, poff=%d", off, poff);
-		t = CHECK_BIT(*(ptr + poff), off);
+	// floor division, negative offsets address bits of preceding cells
+	int poff = offset >= 0 ? offset / (int)BITS : -((-offset + (int)BITS - 1) / (int)BITS);
+	return CHECK_BIT(*(ptr + poff), offset - poff * (int)BITS);
+}
+
+/* *** SEEDING *** */
+// SplitMix64 evaluated at an arbitrary counter, so every word of the world can be
+// generated independently of all others (and thus of the number of seeding threads)
+static inline uint64_t splitMix64(uint64_t seed, uint64_t counter) {
+	uint64_t z = seed + counter * 0x9E3779B97F4A7C15ULL;
+	z = (z ^ (z >> 30)) * 0xBF58476D1CE4E5B9ULL;
+	z = (z ^ (z >> 27)) * 0x94D049BB133111EBULL;
+	return z ^ (z >> 31);
+}
+
+// 64 cells at once, each alive with a probability of density / 2^DENSITY_BITS
+static inline uint64_t seedWord(uint64_t seed, uint64_t word, uint32_t density) {
+	if(density == 0) {
+		return 0;
+	}
+	if(density >= (1 << DENSITY_BITS)) {
+		return ~0ULL;
+	}
+	// combine random words along the binary fraction of the density, starting at the least significant bit
+	uint64_t counter = word * DENSITY_BITS;
+	uint64_t result = 0;
+	int b;
+	for(b = __builtin_ctz(density); b < DENSITY_BITS; b++) {
+		uint64_t r = splitMix64(seed, counter + b);
+		result = CHECK_BIT(density, b) ? (result | r) : (result & r);
+	}
+	return result;
+}
+
+static void *seedCells(void *arg) {
+	struct seed_job *job = (struct seed_job*)arg;
+	size_t w, b, bi;
+	uint64_t word;
+	for(w = job->from; w < job->to; w++) {
+		word = seedWord(job->seed, w, job->density);
+		bi = w * WORD_BYTES;
+		// byte wise, so the cell order does not depend on the endianness
+		for(b = 0; b < WORD_BYTES && bi + b < s_bufsize; b++) {
+			job->buf[bi + b] = (cell_t)(word >> (b * BITS));
+		}
+	}
+	return 0;
+}
+
+static void seedRuntime(uint64_t seed, uint32_t density) {
+	struct seed_job jobs[SEED_MAX_THREADS];
+	pthread_t threads[SEED_MAX_THREADS];
+	int started[SEED_MAX_THREADS];
+	size_t words = (s_bufsize + WORD_BYTES - 1) / WORD_BYTES;
+	long cpus = sysconf(_SC_NPROCESSORS_ONLN);
+	size_t count = cpus > 0 ? (size_t)cpus : 1;
+	size_t i;
+	if(count > SEED_MAX_THREADS)
+		count = SEED_MAX_THREADS;
+	if(count > words / SEED_MIN_WORDS)
+		count = words / SEED_MIN_WORDS;
+	if(count < 1)
+		count = 1;
+	LOGD("seedRuntime(%d words) uses %d threads", words, count);
+
+	for(i = 0; i < count; i++) {
+		jobs[i].buf = s_cbuf;
+		jobs[i].from = words * i / count;
+		jobs[i].to = words * (i + 1) / count;
+		jobs[i].seed = seed;
+		jobs[i].density = density;
+	}
+	// start all workers before this thread does the first job
+	for(i = 1; i < count; i++) {
+		started[i] = !pthread_create(&threads[i], NULL, seedCells, &jobs[i]);
+	}
+	seedCells(&jobs[0]);
+	for(i = 1; i < count; i++) {
+		if(started[i]) {
+			pthread_join(threads[i], NULL);
+		} else {
+			// no thread for this job, do it here
+			seedCells(&jobs[i]);
+		}
+	}
+
+	// no life beyond the end of the world
+	if(s_worldsize % BITS) {
+		s_cbuf[s_bufsize - 1] &= (1 << (s_worldsize % BITS)) - 1;
+	}
+}
+
+/* *** STORAGE *** */
+// writes the whole file, a sparse one would raise SIGBUS on the first write through the mapping to a full disk
+static int reserveStorage(int fd, size_t size) {
+	static const char zeros[64 * 1024];
+	size_t done = 0;
+	while(done < size) {
+		size_t chunk = size - done < sizeof(zeros) ? size - done : sizeof(zeros);
+		ssize_t written = write(fd, zeros, chunk);
+		if(written < 0) {
+			if(errno == EINTR)
+				continue;
+			return errno;
+		}
+		done += written;
+	}
+	return 0;
+}
+
+static int mapStorage(JNIEnv *env, jstring storagePath) {
+	const char *path = (*env)->GetStringUTFChars(env, storagePath, NULL);
+	if(!path) {
+		return ENOMEM;
+	}
+	LOGD("mapStorage(%s) called", path);
+	int fd = open(path, O_RDWR | O_CREAT | O_TRUNC, 0600);
+	if(fd < 0) {
+		int err = errno;
+		LOGE("open(%s) failed (0x%x)", path, err);
+		(*env)->ReleaseStringUTFChars(env, storagePath, path);
+		return err;
+	}
+	// the storage is private to this runtime, so drop its name right away
+	unlink(path);
+	(*env)->ReleaseStringUTFChars(env, storagePath, path);
+
+	size_t size = 3 * s_bufsize;
+	int err = reserveStorage(fd, size);
+	if(err) {
+		LOGE("reserveStorage(%d) failed (0x%x)", size, err);
+		close(fd);
+		return err;
+	}
+	void *mapping = mmap(NULL, size, PROT_READ | PROT_WRITE, MAP_SHARED, fd, 0);
+	err = mapping == MAP_FAILED ? errno : 0;
+	close(fd);
+	if(err) {
+		LOGE("mmap(%d) failed (0x%x)", size, err);
+		return err;
+	}
+
+	s_mapping = mapping;
+	s_mapsize = size;
+	s_cbuf = (cbuf_t)mapping;
+	s_cbuf_s = s_cbuf + s_bufsize;
+	s_cbuf_l = s_cbuf_s + s_bufsize;
+	return 0;
+}
+
+static int allocStorage() {
+	s_cbuf = malloc(s_bufsize);
+	if(!s_cbuf) {
+		LOGE("s_cbuf failed to malloc(%d)", s_bufsize);
+		return errno;
+	}
+	s_cbuf_s = malloc(s_bufsize);
+	if(!s_cbuf_s) {
+		LOGE("s_cbuf_s failed to malloc(%d)", s_bufsize);
+		return errno;
+	}
+	s_cbuf_l = malloc(s_bufsize);
+	if(!s_cbuf_l) {
+		LOGE("s_cbuf_l failed to malloc(%d)", s_bufsize);
+		return errno;
 	}
-//	LOGD("isBitSet(%d) exited", t);
-	return t;
+	return 0;
 }
 
 /* *** INITIALIZATION *** */
@@ -112,8 +288,6 @@ jint JNI_OnLoad(JavaVM *vm, void *reserved) {
 	LOGD("JNI_OnLoad(..) called");
 	int ret;
 
-	srand(time(NULL));
-
 	// initialize mutex
 	if((ret = pthread_mutex_init(&s_mutex, NULL))) {
 		LOGE("pthread_mutex_init failed (0x%x)", ret);
@@ -124,57 +298,39 @@ jint JNI_OnLoad(JavaVM *vm, void *reserved) {
 }
 
 /* *** RUNTIME *** */
-jint Java_com_chrulri_droidoflife_LifeRuntime_nRuntimeCreate(JNIEnv *env UNUSED, jclass clazz UNUSED, jint width, jint height) {
+jint Java_com_chrulri_droidoflife_LifeRuntime_nRuntimeCreate(JNIEnv *env, jclass clazz UNUSED, jint width, jint height,
+		jlong seed, jint density, jstring storagePath) {
 	LOGD("nRuntimeCreate(%d, %d) called", width, height);
 
 	lockRuntime();
 
-	if(width <= 0 || height <= 0) {
+	if(width <= 0 || height <= 0 || (uint64_t)width * height > com_chrulri_droidoflife_LifeRuntime_MAX_WORLD_SIZE) {
 		LOGE("%dx%d is an invalid size for a living room", width, height);
 		unlockRuntime();
 		return com_chrulri_droidoflife_LifeRuntime_E_INVALID_SIZE;
 	}
 
+	if(density < 0 || density > com_chrulri_droidoflife_LifeRuntime_DENSITY_ONE) {
+		LOGE("%d is an invalid density", density);
+		unlockRuntime();
+		return com_chrulri_droidoflife_LifeRuntime_E_INVALID_DENSITY;
+	}
+
 	// initialize variables
 	s_width = width;
 	s_height = height;
-	s_worldsize = width * height;
+	s_worldsize = (size_t)width * height;
 	s_bufsize = (s_worldsize / BITS) + (s_worldsize % BITS == 0 ? 0 : 1);
 
-	s_cbuf = malloc(s_bufsize);
-	if(!s_cbuf) {
-		LOGE("s_cbuf failed to malloc(%d)", s_bufsize);
+	int ret = storagePath ? mapStorage(env, storagePath) : allocStorage();
+	if(ret) {
 		destroyRuntime();
 		unlockRuntime();
-		return errno;
-	}
-	s_cbuf_s = malloc(s_bufsize);
-	if(!s_cbuf_s) {
-		LOGE("s_cbuf_s failed to malloc(%d)", s_bufsize);
-		destroyRuntime();
-		unlockRuntime();
-		return errno;
-	}
-	s_cbuf_l = malloc(s_bufsize);
-	if(!s_cbuf_l) {
-		LOGE("s_cbuf_l failed to malloc(%d)", s_bufsize);
-		destroyRuntime();
-		unlockRuntime();
-		return errno;
+		return ret;
 	}
 
-	// random start
-	cbuf_t cells = s_cbuf;
-	cell_t cell;
-	uint i;
-	size_t x = s_bufsize;
-	while(x--) {
-		cell = 0;
-		for(i = 0; i < BITS; i++) {
-			cell |= (rand() % 5 == 0) << i;
-		}
-		*(cells++) = cell;
-	}
+	// reproducible random start
+	seedRuntime((uint64_t)seed, (uint32_t)density);
 	memset(s_cbuf_l, 0, s_bufsize);
 
 	unlockRuntime();
@@ -224,7 +380,7 @@ void Java_com_chrulri_droidoflife_LifeRuntime_nRuntimeIterate(JNIEnv *env UNUSED
 			if(left && isBitSet(ptr, ci - s_width - 1))
 				alives++;
 			// upper right
-			if(left && isBitSet(ptr, ci - s_width + 1))
+			if(right && isBitSet(ptr, ci - s_width + 1))
 				alives++;
 		}
 		// lower row (index must not be greater than buffer size minus stride)
@@ -236,7 +392,7 @@ void Java_com_chrulri_droidoflife_LifeRuntime_nRuntimeIterate(JNIEnv *env UNUSED
 			if(left && isBitSet(ptr, ci + s_width - 1))
 				alives++;
 			// lower right
-			if(left && isBitSet(ptr, ci + s_width + 1))
+			if(right && isBitSet(ptr, ci + s_width + 1))
 				alives++;
 		}
 		// SET SUCCESSORS //
@@ -266,6 +422,36 @@ void Java_com_chrulri_droidoflife_LifeRuntime_nRuntimeIterate(JNIEnv *env UNUSED
 }
 
 
+jint Java_com_chrulri_droidoflife_LifeRuntime_nRuntimeState(JNIEnv *env, jclass clazz UNUSED, jobject cells, jobject life) {
+	LOGD("nRuntimeState() called");
+
+	lockRuntime();
+
+	if(!s_cbuf) {
+		LOGE("nRuntimeState(..) exited without runtime!");
+		unlockRuntime();
+		return com_chrulri_droidoflife_LifeRuntime_E_NO_RUNTIME;
+	}
+
+	void *cellsPtr = (*env)->GetDirectBufferAddress(env, cells);
+	void *lifePtr = (*env)->GetDirectBufferAddress(env, life);
+	if(!cellsPtr || !lifePtr
+			|| (*env)->GetDirectBufferCapacity(env, cells) < (jlong)s_bufsize
+			|| (*env)->GetDirectBufferCapacity(env, life) < (jlong)s_bufsize) {
+		LOGE("nRuntimeState(..) needs direct buffers of %d bytes", s_bufsize);
+		unlockRuntime();
+		return com_chrulri_droidoflife_LifeRuntime_E_INVALID_SIZE;
+	}
+
+	memcpy(cellsPtr, s_cbuf, s_bufsize);
+	memcpy(lifePtr, s_cbuf_l, s_bufsize);
+
+	unlockRuntime();
+
+	LOGD("nRuntimeState() exited");
+	return com_chrulri_droidoflife_LifeRuntime_OK;
+}
+
 void Java_com_chrulri_droidoflife_LifeRuntime_nRuntimeDestroy(JNIEnv *env UNUSED, jclass clazz UNUSED) {
 	LOGD("nRuntimeDestroy() called");
 
@@ -317,11 +503,27 @@ void Java_com_chrulri_droidoflife_LifeRuntime_nRuntimeBitmap(JNIEnv *env, jclass
 
 	uint32_t *ptr = pixels;
 	uint i, b;
-	for(i = 0; i < s_worldsize; i++) {
-		b = enableBornDeath ? isBitSet(s_cbuf_l, i) : 0;
-		*(ptr++) = isBitSet(s_cbuf, i) ?
-				(b ? colorBorn : colorAlive) :
-				(b ? colorDied : colorDead);
+	if(info.width == (uint32_t)s_width && info.height == (uint32_t)s_height && info.stride == info.width * 4) {
+		for(i = 0; i < s_worldsize; i++) {
+			b = enableBornDeath ? isBitSet(s_cbuf_l, i) : 0;
+			*(ptr++) = isBitSet(s_cbuf, i) ?
+					(b ? colorBorn : colorAlive) :
+					(b ? colorDied : colorDead);
+		}
+	} else {
+		// world is larger than the bitmap, pick one cell per pixel
+		uint x, y, row;
+		for(y = 0; y < info.height; y++) {
+			ptr = (uint32_t*)((uint8_t*)pixels + y * info.stride);
+			row = (uint)((uint64_t)y * s_height / info.height) * s_width;
+			for(x = 0; x < info.width; x++) {
+				i = row + (uint)((uint64_t)x * s_width / info.width);
+				b = enableBornDeath ? isBitSet(s_cbuf_l, i) : 0;
+				*(ptr++) = isBitSet(s_cbuf, i) ?
+						(b ? colorBorn : colorAlive) :
+						(b ? colorDied : colorDead);
+			}
+		}
 	}
 
 	if((ret = AndroidBitmap_unlockPixels(env, bitmap))) {
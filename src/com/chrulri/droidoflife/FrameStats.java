@@ -0,0 +1,156 @@
+/******************************************************************************
+ *  Droid of Life, an open source Android game based on Conway's Game of Life *
+ *  Copyright (C) 2012  Christian Ulrich <chrulri@gmail.com>                  *
+ *                                                                            *
+ *  This program is free software: you can redistribute it and/or modify      *
+ *  it under the terms of the GNU General Public License as published by      *
+ *  the Free Software Foundation, either version 3 of the License, or         *
+ *  (at your option) any later version.                                       *
+ *                                                                            *
+ *  This program is distributed in the hope that it will be useful,           *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of            *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             *
+ *  GNU General Public License for more details.                              *
+ *                                                                            *
+ *  You should have received a copy of the GNU General Public License         *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.     *
+ ******************************************************************************/
+
+package com.chrulri.droidoflife;
+
+import android.os.Debug;
+
+/**
+ * Droid of Life - frame time, garbage collection and allocation counters of the rendering. Android does not tell
+ * how long a garbage collection paused the app, so the time of all frames a collection happened in is counted
+ * instead.
+ */
+final class FrameStats {
+    static final String TAG = FrameStats.class.getSimpleName();
+
+    private int mFrames;
+    private long mTotalNs;
+    private long mMaxNs;
+    /** frames longer than one display frame */
+    private int mJankFrames;
+    /** garbage collections during frames */
+    private int mGcs;
+    private long mGcFramesNs;
+    /** objects allocated during frames */
+    private int mAllocs;
+
+    private long mStartNs;
+    private int mStartGcs;
+    private int mStartAllocs;
+
+    /**
+     * starts counting allocations and garbage collections of the whole process
+     */
+    FrameStats() {
+        Debug.startAllocCounting();
+    }
+
+    /**
+     * stops counting allocations and garbage collections
+     */
+    void stop() {
+        Debug.stopAllocCounting();
+    }
+
+    synchronized void begin() {
+        mStartNs = System.nanoTime();
+        mStartGcs = Debug.getGlobalGcInvocationCount();
+        mStartAllocs = Debug.getGlobalAllocCount();
+    }
+
+    synchronized void end() {
+        long ns = System.nanoTime() - mStartNs;
+        int gcs = Debug.getGlobalGcInvocationCount() - mStartGcs;
+        mFrames++;
+        mTotalNs += ns;
+        mMaxNs = Math.max(mMaxNs, ns);
+        if (ns > Setup.FRAME_INTERVAL_MS * 1000000L) {
+            mJankFrames++;
+        }
+        if (gcs > 0) {
+            mGcs += gcs;
+            mGcFramesNs += ns;
+        }
+        mAllocs += Debug.getGlobalAllocCount() - mStartAllocs;
+    }
+
+    synchronized void reset() {
+        mFrames = mJankFrames = mGcs = mAllocs = 0;
+        mTotalNs = mMaxNs = mGcFramesNs = 0;
+    }
+
+    /**
+     * writes the counters as text without allocating anything, so it can be drawn every frame
+     * 
+     * @return length of the text
+     */
+    synchronized int format(char[] text) {
+        int i = 0;
+        i = put(text, i, "frames ");
+        i = putInt(text, i, mFrames);
+        i = put(text, i, "  avg ");
+        i = putMillis(text, i, mFrames > 0 ? mTotalNs / mFrames : 0);
+        i = put(text, i, "  max ");
+        i = putMillis(text, i, mMaxNs);
+        i = put(text, i, "  jank ");
+        i = putInt(text, i, mJankFrames);
+        i = put(text, i, "  gc ");
+        i = putInt(text, i, mGcs);
+        i = put(text, i, " (");
+        i = putMillis(text, i, mGcFramesNs);
+        i = put(text, i, ")  alloc ");
+        i = putInt(text, i, mAllocs);
+        return i;
+    }
+
+    /**
+     * dumps the counters to the log and starts over
+     */
+    void log() {
+        char[] text = new char[128];
+        Log.info(TAG, "%s", new String(text, 0, format(text)));
+        reset();
+    }
+
+    /* ************************************************************************************************************* */
+
+    private static int put(char[] text, int i, String s) {
+        int len = Math.min(s.length(), text.length - i);
+        s.getChars(0, len, text, i);
+        return i + len;
+    }
+
+    private static int putInt(char[] text, int i, long value) {
+        if (value < 0) {
+            if (i < text.length)
+                text[i++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        int end = Math.min(i + digits, text.length);
+        for (int d = i + digits - 1; d >= i; d--, value /= 10) {
+            if (d < end)
+                text[d] = (char) ('0' + value % 10);
+        }
+        return end;
+    }
+
+    /**
+     * @param ns nanoseconds, written as milliseconds with one decimal place
+     */
+    private static int putMillis(char[] text, int i, long ns) {
+        long tenths = ns / 100000L;
+        i = putInt(text, i, tenths / 10);
+        i = put(text, i, ".");
+        i = putInt(text, i, tenths % 10);
+        return put(text, i, "ms");
+    }
+}
@@ -0,0 +1,254 @@
+/******************************************************************************
+ *  Droid of Life, an open source Android game based on Conway's Game of Life *
+ *  Copyright (C) 2012  Christian Ulrich <chrulri@gmail.com>                  *
+ *                                                                            *
+ *  This program is free software: you can redistribute it and/or modify      *
+ *  it under the terms of the GNU General Public License as published by      *
+ *  the Free Software Foundation, either version 3 of the License, or         *
+ *  (at your option) any later version.                                       *
+ *                                                                            *
+ *  This program is distributed in the hope that it will be useful,           *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of            *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             *
+ *  GNU General Public License for more details.                              *
+ *                                                                            *
+ *  You should have received a copy of the GNU General Public License         *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.     *
+ ******************************************************************************/
+
+package com.chrulri.droidoflife;
+
+import java.util.Arrays;
+
+/**
+ * Droid of Life - 64 independent worlds of the same size simulated at once. Cell (x, y) of world k is bit k of
+ * one word, so every step computes all worlds together with the same rules as the native runtime. Meant for
+ * searches through many small worlds, runs in plain JVMs as well.
+ * <p>
+ * Usage: <code>LifeBatch &lt;width&gt; &lt;height&gt; &lt;generations&gt; &lt;count of seeds&gt; [density
+ * percent]</code> looks for the seed with the largest population after the given generations.
+ */
+final class LifeBatch {
+    static final String TAG = LifeBatch.class.getSimpleName();
+
+    /** count of worlds per batch */
+    static final int LANES = 64;
+
+    final int width;
+    final int height;
+    /** words per row including a dead border on both sides */
+    private final int mStride;
+    /** worlds with a dead border of one cell all around */
+    private long[] mCells;
+    /** successor buffer, holds the generation before the current one */
+    private long[] mPrevious;
+    /** worlds changed by the last step */
+    private long mChanged;
+    /** worlds changed compared to the generation before the previous one */
+    private long mChanged2;
+    /** worlds loaded and not stepped since */
+    private long mLoaded;
+    /** worlds stepped less than twice since loaded, their generation before the previous one is unknown */
+    private long mYoung;
+
+    LifeBatch(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException(width + "x" + height + " is an invalid size for a living room");
+        }
+        this.width = width;
+        this.height = height;
+        mStride = width + 2;
+        mCells = new long[mStride * (height + 2)];
+        mPrevious = new long[mCells.length];
+        mChanged = mChanged2 = -1L;
+        mLoaded = mYoung = -1L;
+    }
+
+    /**
+     * @return the bit of the given world, shifts would wrap around silently
+     */
+    private static long laneBit(int lane) {
+        if (lane < 0 || lane >= LANES) {
+            throw new IllegalArgumentException("lane must be within [0, " + LANES + ")");
+        }
+        return 1L << lane;
+    }
+
+    private int index(int x, int y) {
+        return (y + 1) * mStride + x + 1;
+    }
+
+    /**
+     * replaces a world by the given one
+     */
+    void load(int lane, LifeBoard board) {
+        if (board.width != width || board.height != height) {
+            throw new IllegalArgumentException("board must be " + width + "x" + height);
+        }
+        final long bit = laneBit(lane);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0, i = index(0, y); x < width; x++, i++) {
+                mCells[i] = board.get(x, y) ? mCells[i] | bit : mCells[i] & ~bit;
+                mPrevious[i] &= ~bit;
+            }
+        }
+        mChanged |= bit;
+        mChanged2 |= bit;
+        mLoaded |= bit;
+        mYoung |= bit;
+    }
+
+    /**
+     * replaces a world by a random one, equal to the native runtime's world of the same seed
+     */
+    void load(int lane, long seed, int density) {
+        final long bit = laneBit(lane);
+        long cached = -1;
+        long word = 0;
+        long cell = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0, i = index(0, y); x < width; x++, i++, cell++) {
+                if ((cell >>> 6) != cached) {
+                    cached = cell >>> 6;
+                    word = LifeSeeder.word(seed, cached, density);
+                }
+                mCells[i] = (word & (1L << cell)) != 0 ? mCells[i] | bit : mCells[i] & ~bit;
+                mPrevious[i] &= ~bit;
+            }
+        }
+        mChanged |= bit;
+        mChanged2 |= bit;
+        mLoaded |= bit;
+        mYoung |= bit;
+    }
+
+    /**
+     * copies a world into the given board
+     */
+    void unload(int lane, LifeBoard board) {
+        if (board.width != width || board.height != height) {
+            throw new IllegalArgumentException("board must be " + width + "x" + height);
+        }
+        final long bit = laneBit(lane);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0, i = index(0, y); x < width; x++, i++) {
+                board.set(x, y, (mCells[i] & bit) != 0);
+            }
+        }
+    }
+
+    /**
+     * iterate all worlds through one generation of life
+     */
+    void step() {
+        final long[] c = mCells;
+        final long[] n = mPrevious;
+        final int s = mStride;
+        long changed = 0;
+        long changed2 = 0;
+        for (int y = 0; y < height; y++) {
+            for (int i = index(0, y), end = i + width; i < end; i++) {
+                long alive = c[i];
+                long next = LifeBoard.rule(alive, c[i - s - 1], c[i - s], c[i - s + 1], c[i - 1], c[i + 1],
+                        c[i + s - 1], c[i + s], c[i + s + 1]);
+                changed |= next ^ alive;
+                changed2 |= next ^ n[i];
+                n[i] = next;
+            }
+        }
+        mPrevious = c;
+        mCells = n;
+        mChanged = changed;
+        mChanged2 = changed2;
+        mYoung = mLoaded;
+        mLoaded = 0;
+    }
+
+    void step(int generations) {
+        while (generations-- > 0) {
+            step();
+        }
+    }
+
+    int population(int lane) {
+        final long bit = laneBit(lane);
+        int population = 0;
+        for (long cells : mCells) {
+            if ((cells & bit) != 0)
+                population++;
+        }
+        return population;
+    }
+
+    /**
+     * @param populations receives the populations of all worlds
+     */
+    void populations(int[] populations) {
+        Arrays.fill(populations, 0, LANES, 0);
+        for (long cells : mCells) {
+            while (cells != 0) {
+                populations[Long.numberOfTrailingZeros(cells)]++;
+                cells &= cells - 1;
+            }
+        }
+    }
+
+    /**
+     * @return worlds which did not change in the last step, one bit per world
+     */
+    long stableLanes() {
+        return ~mChanged;
+    }
+
+    /**
+     * @return worlds which are stable or repeat every second generation, one bit per world. Worlds stepped less
+     *         than twice since loaded only count if stable, as their period of two is unknown yet.
+     */
+    long oscillatingLanes() {
+        return (~mChanged2 & ~mYoung) | stableLanes();
+    }
+
+    boolean isStable(int lane) {
+        return (stableLanes() & laneBit(lane)) != 0;
+    }
+
+    /* ************************************************************************************************************* */
+
+    public static void main(String[] args) {
+        if (args.length < 4) {
+            System.err.println("usage: " + TAG + " <width> <height> <generations> <count of seeds>"
+                    + " [density percent]");
+            System.exit(1);
+        }
+        int width = Integer.parseInt(args[0]);
+        int height = Integer.parseInt(args[1]);
+        int generations = Integer.parseInt(args[2]);
+        long seeds = Long.parseLong(args[3]);
+        int density = LifeSeeder.density((args.length > 4 ? Integer.parseInt(args[4])
+                : Setup.DEFAULT_DENSITY_PERCENT) / 100f);
+
+        LifeBatch batch = new LifeBatch(width, height);
+        int[] populations = new int[LANES];
+        long bestSeed = -1;
+        int bestPopulation = -1;
+        long start = System.currentTimeMillis();
+        for (long seed = 0; seed < seeds; seed += LANES) {
+            for (int lane = 0; lane < LANES; lane++) {
+                batch.load(lane, seed + lane, density);
+            }
+            batch.step(generations);
+            batch.populations(populations);
+            for (int lane = 0; lane < LANES && seed + lane < seeds; lane++) {
+                if (populations[lane] > bestPopulation) {
+                    bestPopulation = populations[lane];
+                    bestSeed = seed + lane;
+                }
+            }
+        }
+        long time = Math.max(1, System.currentTimeMillis() - start);
+        System.out.println(TAG + ": seed " + bestSeed + " has a population of " + bestPopulation + " after "
+                + generations + " generations");
+        System.out.println(TAG + ": " + seeds + " worlds in " + time + " ms (" + (seeds * 1000 / time)
+                + " worlds/s)");
+    }
+}
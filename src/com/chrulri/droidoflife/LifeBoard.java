@@ -0,0 +1,200 @@
+/******************************************************************************
+ *  Droid of Life, an open source Android game based on Conway's Game of Life *
+ *  Copyright (C) 2012  Christian Ulrich <chrulri@gmail.com>                  *
+ *                                                                            *
+ *  This program is free software: you can redistribute it and/or modify      *
+ *  it under the terms of the GNU General Public License as published by      *
+ *  the Free Software Foundation, either version 3 of the License, or         *
+ *  (at your option) any later version.                                       *
+ *                                                                            *
+ *  This program is distributed in the hope that it will be useful,           *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of            *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             *
+ *  GNU General Public License for more details.                              *
+ *                                                                            *
+ *  You should have received a copy of the GNU General Public License         *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.     *
+ ******************************************************************************/
+
+package com.chrulri.droidoflife;
+
+import java.util.Arrays;
+
+/**
+ * Droid of Life - Java world with the same rules as the native runtime: B3/S23 and nothing lives beyond the
+ * borders. Cells are packed row by row into 64 bit words, the least significant bit is the left most cell.
+ * Free of Android dependencies, so it also runs in plain JVMs.
+ */
+final class LifeBoard {
+    final int width;
+    final int height;
+    /** count of words per row */
+    final int stride;
+    final long[] cells;
+    /** valid bits of the last word of each row */
+    private final long mLastMask;
+
+    LifeBoard(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException(width + "x" + height + " is an invalid size for a living room");
+        }
+        this.width = width;
+        this.height = height;
+        stride = (width + 63) >>> 6;
+        cells = new long[stride * height];
+        mLastMask = -1L >>> (stride * 64 - width);
+    }
+
+    boolean get(int x, int y) {
+        return (cells[y * stride + (x >>> 6)] & (1L << x)) != 0;
+    }
+
+    void set(int x, int y, boolean alive) {
+        int i = y * stride + (x >>> 6);
+        if (alive) {
+            cells[i] |= 1L << x;
+        } else {
+            cells[i] &= ~(1L << x);
+        }
+    }
+
+    void clear() {
+        Arrays.fill(cells, 0);
+    }
+
+    void copyFrom(LifeBoard board) {
+        System.arraycopy(board.cells, 0, cells, 0, cells.length);
+    }
+
+    int population() {
+        int population = 0;
+        for (long word : cells) {
+            population += Long.bitCount(word);
+        }
+        return population;
+    }
+
+    /**
+     * seeds the whole board like the native runtime does
+     */
+    void seed(long seed, int density) {
+        seed(seed, density, width, 0, 0, 0);
+    }
+
+    /**
+     * seeds the board as a part of a larger world, cells within the border stay dead
+     * 
+     * @param worldWidth count of cells per row of the whole world
+     * @param worldX world column of the first cell inside the border
+     * @param worldY world row of the first cell inside the border
+     * @param border count of cells around the board which are not part of it
+     */
+    void seed(long seed, int density, int worldWidth, int worldX, int worldY, int border) {
+        clear();
+        long cached = -1;
+        long word = 0;
+        for (int y = border; y < height - border; y++) {
+            long index = (long) (worldY + y - border) * worldWidth + worldX;
+            for (int x = border; x < width - border; x++, index++) {
+                if ((index >>> 6) != cached) {
+                    cached = index >>> 6;
+                    word = LifeSeeder.word(seed, cached, density);
+                }
+                if ((word & (1L << index)) != 0) {
+                    set(x, y, true);
+                }
+            }
+        }
+    }
+
+    /**
+     * computes the successor of the given board
+     */
+    void step(LifeBoard src) {
+        stepRows(src, 0, height);
+    }
+
+    /**
+     * computes the successors of some rows of the given board, 64 cells at once
+     * 
+     * @param from first row
+     * @param to first row not to compute anymore
+     */
+    void stepRows(LifeBoard src, int from, int to) {
+        final long[] c = src.cells;
+        final int s = stride;
+        for (int y = from; y < to; y++) {
+            final int row = y * s;
+            final int above = y > 0 ? row - s : -1;
+            final int below = y + 1 < height ? row + s : -1;
+            for (int i = 0; i < s; i++) {
+                long prev, next;
+                // upper row
+                long nw = 0, n = 0, ne = 0;
+                if (above >= 0) {
+                    n = c[above + i];
+                    prev = i > 0 ? c[above + i - 1] : 0;
+                    next = i + 1 < s ? c[above + i + 1] : 0;
+                    nw = (n << 1) | (prev >>> 63);
+                    ne = (n >>> 1) | (next << 63);
+                }
+                // current row
+                long alive = c[row + i];
+                prev = i > 0 ? c[row + i - 1] : 0;
+                next = i + 1 < s ? c[row + i + 1] : 0;
+                long w = (alive << 1) | (prev >>> 63);
+                long e = (alive >>> 1) | (next << 63);
+                // lower row
+                long sw = 0, so = 0, se = 0;
+                if (below >= 0) {
+                    so = c[below + i];
+                    prev = i > 0 ? c[below + i - 1] : 0;
+                    next = i + 1 < s ? c[below + i + 1] : 0;
+                    sw = (so << 1) | (prev >>> 63);
+                    se = (so >>> 1) | (next << 63);
+                }
+                long result = rule(alive, nw, n, ne, w, e, sw, so, se);
+                cells[row + i] = i + 1 < s ? result : result & mLastMask;
+            }
+        }
+    }
+
+    /**
+     * computes the successor of a single cell of the given board
+     */
+    void stepCell(LifeBoard src, int x, int y) {
+        int alives = 0;
+        for (int dy = -1; dy <= 1; dy++) {
+            int ny = y + dy;
+            if (ny < 0 || ny >= height)
+                continue;
+            for (int dx = -1; dx <= 1; dx++) {
+                int nx = x + dx;
+                if ((dx != 0 || dy != 0) && nx >= 0 && nx < width && src.get(nx, ny))
+                    alives++;
+            }
+        }
+        set(x, y, alives == 3 || (alives == 2 && src.get(x, y)));
+    }
+
+    /**
+     * B3/S23 for 64 independent cells, each bit position is one cell with its eight neighbours at the same bit
+     * position of the neighbour words
+     * 
+     * @return successors of the cells
+     */
+    static long rule(long alive, long n0, long n1, long n2, long n3, long n4, long n5, long n6, long n7) {
+        // bit sliced counter of alive neighbours: s0 + 2 * s1, s2 is set from four on
+        long s0 = 0, s1 = 0, s2 = 0, c0, c1;
+        c0 = s0 & n0; s0 ^= n0; c1 = s1 & c0; s1 ^= c0; s2 |= c1;
+        c0 = s0 & n1; s0 ^= n1; c1 = s1 & c0; s1 ^= c0; s2 |= c1;
+        c0 = s0 & n2; s0 ^= n2; c1 = s1 & c0; s1 ^= c0; s2 |= c1;
+        c0 = s0 & n3; s0 ^= n3; c1 = s1 & c0; s1 ^= c0; s2 |= c1;
+        c0 = s0 & n4; s0 ^= n4; c1 = s1 & c0; s1 ^= c0; s2 |= c1;
+        c0 = s0 & n5; s0 ^= n5; c1 = s1 & c0; s1 ^= c0; s2 |= c1;
+        c0 = s0 & n6; s0 ^= n6; c1 = s1 & c0; s1 ^= c0; s2 |= c1;
+        c0 = s0 & n7; s0 ^= n7; c1 = s1 & c0; s1 ^= c0; s2 |= c1;
+        // born with three, survive with two or three
+        return ~s2 & s1 & (s0 | alive);
+    }
+}
@@ -0,0 +1,33 @@
+/******************************************************************************
+ *  Droid of Life, an open source Android game based on Conway's Game of Life *
+ *  Copyright (C) 2012  Christian Ulrich <chrulri@gmail.com>                  *
+ *                                                                            *
+ *  This program is free software: you can redistribute it and/or modify      *
+ *  it under the terms of the GNU General Public License as published by      *
+ *  the Free Software Foundation, either version 3 of the License, or         *
+ *  (at your option) any later version.                                       *
+ *                                                                            *
+ *  This program is distributed in the hope that it will be useful,           *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of            *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             *
+ *  GNU General Public License for more details.                              *
+ *                                                                            *
+ *  You should have received a copy of the GNU General Public License         *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.     *
+ ******************************************************************************/
+
+package com.chrulri.droidoflife;
+
+/**
+ * Droid of Life - receiver of generations played by a {@link LifePlayer}
+ */
+interface LifeFrameSink {
+    /**
+     * @param generation number of the generation
+     * @param width count of cells per row
+     * @param height count of rows of cells
+     * @param cells all cells, one bit per cell like the native runtime
+     * @param life cells which have just been born or died, one bit per cell
+     */
+    void onFrame(int generation, int width, int height, byte[] cells, byte[] life);
+}
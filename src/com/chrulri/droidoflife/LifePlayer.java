@@ -0,0 +1,340 @@
+/******************************************************************************
+ *  Droid of Life, an open source Android game based on Conway's Game of Life *
+ *  Copyright (C) 2012  Christian Ulrich <chrulri@gmail.com>                  *
+ *                                                                            *
+ *  This program is free software: you can redistribute it and/or modify      *
+ *  it under the terms of the GNU General Public License as published by      *
+ *  the Free Software Foundation, either version 3 of the License, or         *
+ *  (at your option) any later version.                                       *
+ *                                                                            *
+ *  This program is distributed in the hope that it will be useful,           *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of            *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             *
+ *  GNU General Public License for more details.                              *
+ *                                                                            *
+ *  You should have received a copy of the GNU General Public License         *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.     *
+ ******************************************************************************/
+
+package com.chrulri.droidoflife;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Droid of Life - plays a recording of a {@link LifeRecorder} without simulating anything. Runs in plain JVMs as
+ * well, usage: <code>LifePlayer &lt;recording&gt; [first generation] [count of generations]</code> prints
+ * population, births and deaths of every generation.
+ */
+final class LifePlayer {
+    static final String TAG = LifePlayer.class.getSimpleName();
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    final int width;
+    final int height;
+    private final int mBufferSize;
+    private final FileChannel mChannel;
+    private final ByteBuffer mIn;
+    private final File mIndexFile;
+    private final byte[] mCells;
+    private final byte[] mLife;
+    /** generations of all keyframes, ascending, null until the index is loaded */
+    private int[] mKeyGenerations;
+    /** file offsets of all keyframes */
+    private long[] mKeyOffsets;
+    private int mKeyCount;
+    /** current generation, -1 if there is none yet */
+    private int mGeneration;
+
+    /**
+     * reads the header only, so this is cheap enough for the UI thread. The index is loaded on the first seek.
+     */
+    LifePlayer(File file) throws IOException {
+        mIndexFile = LifeRecorder.indexFile(file);
+        mChannel = new FileInputStream(file).getChannel();
+        mIn = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        mIn.flip();
+        try {
+            if (!fill(LifeRecorder.HEADER_SIZE) || mIn.getInt() != LifeRecorder.MAGIC) {
+                throw new IOException(file + " is no recording");
+            }
+            if (mIn.getInt() != LifeRecorder.VERSION) {
+                throw new IOException(file + " has an unsupported version");
+            }
+            width = mIn.getInt();
+            height = mIn.getInt();
+            mIn.getInt(); // keyframe interval
+            mBufferSize = (int) (((long) width * height + 7) / 8);
+            mCells = new byte[mBufferSize];
+            mLife = new byte[mBufferSize];
+            mGeneration = -1;
+        } catch (IOException e) {
+            mChannel.close();
+            throw e;
+        }
+    }
+
+    int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * @return all cells of the current generation, one bit per cell
+     */
+    byte[] cells() {
+        return mCells;
+    }
+
+    /**
+     * @return cells which have just been born or died, one bit per cell. Unknown right after seeking onto a
+     *         keyframe, so empty then.
+     */
+    byte[] life() {
+        return mLife;
+    }
+
+    int getFirstGeneration() throws IOException {
+        if (mKeyGenerations == null) {
+            loadIndex();
+        }
+        return mKeyCount > 0 ? mKeyGenerations[0] : -1;
+    }
+
+    /**
+     * moves to the given generation, or the last one recorded before it
+     * 
+     * @return false if there is no recorded generation
+     */
+    boolean seek(int generation) throws IOException {
+        if (mKeyGenerations == null) {
+            loadIndex();
+        }
+        if (mKeyCount == 0) {
+            return false;
+        }
+        // last keyframe not after the generation
+        int k = Arrays.binarySearch(mKeyGenerations, 0, mKeyCount, generation);
+        if (k < 0) {
+            k = Math.max(0, -k - 2);
+        }
+        mChannel.position(mKeyOffsets[k]);
+        mIn.clear().flip();
+        mGeneration = -1;
+        if (!next()) {
+            return false;
+        }
+        while (mGeneration < generation && next()) {
+            // play forward
+        }
+        return true;
+    }
+
+    /**
+     * reads the next generation
+     * 
+     * @return false at the end of the recording
+     */
+    boolean next() throws IOException {
+        if (!fill(LifeRecorder.RECORD_HEADER_SIZE)) {
+            return false;
+        }
+        byte type = mIn.get();
+        int generation = mIn.getInt();
+        int length = mIn.getInt();
+        try {
+            if (type == LifeRecorder.RECORD_KEYFRAME) {
+                // after seeking there is no predecessor, even for generation 0
+                readKeyframe(mGeneration >= 0 && generation == mGeneration + 1);
+            } else if (type == LifeRecorder.RECORD_DELTA && mGeneration >= 0) {
+                readDelta(length);
+            } else {
+                throw new IOException("unexpected record " + type + " for generation " + generation);
+            }
+        } catch (EOFException e) {
+            // recording ends within the record
+            return false;
+        }
+        mGeneration = generation;
+        return true;
+    }
+
+    /**
+     * plays the following generations as fast as possible
+     * 
+     * @param count maximum count of generations
+     * @return count of played generations
+     */
+    int play(LifeFrameSink sink, int count) throws IOException {
+        int played = 0;
+        while (played < count && next()) {
+            sink.onFrame(mGeneration, width, height, mCells, mLife);
+            played++;
+        }
+        return played;
+    }
+
+    void close() throws IOException {
+        mChannel.close();
+    }
+
+    /* ************************************************************************************************************* */
+
+    /**
+     * makes sure there are at least the given count of bytes in the input buffer
+     * 
+     * @return false at the end of the file
+     */
+    private boolean fill(int count) throws IOException {
+        if (mIn.remaining() >= count) {
+            return true;
+        }
+        mIn.compact();
+        while (mIn.position() < count) {
+            if (mChannel.read(mIn) < 0) {
+                mIn.flip();
+                return false;
+            }
+        }
+        mIn.flip();
+        return true;
+    }
+
+    private void readKeyframe(boolean successor) throws IOException {
+        for (int i = 0; i < mBufferSize;) {
+            int len = Math.min(mBufferSize - i, BUFFER_SIZE);
+            if (!fill(len)) {
+                throw new EOFException();
+            }
+            for (int end = i + len; i < end; i++) {
+                byte cells = mIn.get();
+                // born and died cells are only known if this is the successor of the current generation
+                mLife[i] = successor ? (byte) (mCells[i] ^ cells) : 0;
+                mCells[i] = cells;
+            }
+        }
+    }
+
+    private void readDelta(int length) throws IOException {
+        Arrays.fill(mLife, (byte) 0);
+        long index = -1;
+        long gap = 0;
+        int shift = 0;
+        while (length > 0) {
+            int len = Math.min(length, BUFFER_SIZE);
+            if (!fill(len)) {
+                throw new EOFException();
+            }
+            length -= len;
+            while (len-- > 0) {
+                int b = mIn.get();
+                gap |= (long) (b & 0x7F) << shift;
+                if (b < 0) {
+                    shift += 7;
+                    continue;
+                }
+                index += gap + 1;
+                int i = (int) (index >>> 3);
+                int bit = 1 << (int) (index & 7);
+                mLife[i] |= bit;
+                mCells[i] ^= bit;
+                gap = 0;
+                shift = 0;
+            }
+        }
+    }
+
+    private void loadIndex() throws IOException {
+        final File indexFile = mIndexFile;
+        mKeyGenerations = new int[16];
+        mKeyOffsets = new long[16];
+        mKeyCount = 0;
+        ByteBuffer entry = ByteBuffer.allocate(Math.max(LifeRecorder.INDEX_ENTRY_SIZE,
+                LifeRecorder.RECORD_HEADER_SIZE));
+        if (indexFile.exists()) {
+            FileChannel index = new FileInputStream(indexFile).getChannel();
+            try {
+                entry.limit(LifeRecorder.INDEX_ENTRY_SIZE);
+                while (index.read(entry) >= 0) {
+                    if (!entry.hasRemaining()) {
+                        addKeyframe(entry.getInt(0), entry.getLong(4));
+                        entry.clear().limit(LifeRecorder.INDEX_ENTRY_SIZE);
+                    }
+                }
+            } finally {
+                index.close();
+            }
+            return;
+        }
+        // no index, so look at every record
+        long position = LifeRecorder.HEADER_SIZE;
+        long size = mChannel.size();
+        entry.limit(LifeRecorder.RECORD_HEADER_SIZE);
+        while (position + LifeRecorder.RECORD_HEADER_SIZE <= size) {
+            entry.clear().limit(LifeRecorder.RECORD_HEADER_SIZE);
+            while (entry.hasRemaining() && mChannel.read(entry, position + entry.position()) >= 0) {
+                // read header
+            }
+            if (entry.get(0) == LifeRecorder.RECORD_KEYFRAME) {
+                addKeyframe(entry.getInt(1), position);
+            }
+            position += LifeRecorder.RECORD_HEADER_SIZE + entry.getInt(5);
+        }
+    }
+
+    private void addKeyframe(int generation, long offset) {
+        if (mKeyCount == mKeyGenerations.length) {
+            int[] generations = new int[mKeyCount * 2];
+            long[] offsets = new long[mKeyCount * 2];
+            System.arraycopy(mKeyGenerations, 0, generations, 0, mKeyCount);
+            System.arraycopy(mKeyOffsets, 0, offsets, 0, mKeyCount);
+            mKeyGenerations = generations;
+            mKeyOffsets = offsets;
+        }
+        mKeyGenerations[mKeyCount] = generation;
+        mKeyOffsets[mKeyCount] = offset;
+        mKeyCount++;
+    }
+
+    /* ************************************************************************************************************* */
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: " + TAG + " <recording> [first generation] [count of generations]");
+            System.exit(1);
+        }
+        LifePlayer player = new LifePlayer(new File(args[0]));
+        try {
+            int first = args.length > 1 ? Integer.parseInt(args[1]) : player.getFirstGeneration();
+            int count = args.length > 2 ? Integer.parseInt(args[2]) : Integer.MAX_VALUE;
+            if (!player.seek(first)) {
+                System.err.println(TAG + ": nothing recorded");
+                System.exit(1);
+            }
+            LifeFrameSink printer = new LifeFrameSink() {
+                @Override
+                public void onFrame(int generation, int width, int height, byte[] cells, byte[] life) {
+                    int population = 0, births = 0, deaths = 0;
+                    for (int i = 0; i < cells.length; i++) {
+                        population += Integer.bitCount(cells[i] & 0xFF);
+                        births += Integer.bitCount(cells[i] & life[i] & 0xFF);
+                        deaths += Integer.bitCount(~cells[i] & life[i] & 0xFF);
+                    }
+                    System.out.println(generation + " " + population + " " + births + " " + deaths);
+                }
+            };
+            long start = System.currentTimeMillis();
+            printer.onFrame(player.getGeneration(), player.width, player.height, player.cells(), player.life());
+            int played = 1 + player.play(printer, count - 1);
+            System.err.println(TAG + ": " + played + " generations in " + (System.currentTimeMillis() - start)
+                    + " ms");
+        } finally {
+            player.close();
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/******************************************************************************
+ *  Droid of Life, an open source Android game based on Conway's Game of Life *
+ *  Copyright (C) 2012  Christian Ulrich <chrulri@gmail.com>                  *
+ *                                                                            *
+ *  This program is free software: you can redistribute it and/or modify      *
+ *  it under the terms of the GNU General Public License as published by      *
+ *  the Free Software Foundation, either version 3 of the License, or         *
+ *  (at your option) any later version.                                       *
+ *                                                                            *
+ *  This program is distributed in the hope that it will be useful,           *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of            *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             *
+ *  GNU General Public License for more details.                              *
+ *                                                                            *
+ *  You should have received a copy of the GNU General Public License         *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.     *
+ ******************************************************************************/
+
+package com.chrulri.droidoflife;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Droid of Life - records a simulation generation by generation into an append-only file.
+ * <p>
+ * File format (big endian): header of magic, version, width, height and keyframe interval followed by records of
+ * type (byte), generation (int), payload length (int) and payload. A keyframe holds all cells, one bit per cell
+ * like the native runtime. A delta holds the cells born or died since the previous generation as gaps between
+ * their indexes, each a variable length integer of seven bits per byte. Generation and file offset of every
+ * keyframe are appended to a separate index file, so players can seek without reading the whole recording.
+ */
+final class LifeRecorder {
+    static final String TAG = LifeRecorder.class.getSimpleName();
+
+    static final int MAGIC = 0x444F4C52; // DOLR
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 20;
+    static final int RECORD_HEADER_SIZE = 9;
+    static final byte RECORD_KEYFRAME = 1;
+    static final byte RECORD_DELTA = 2;
+    static final String INDEX_SUFFIX = ".idx";
+    static final int INDEX_ENTRY_SIZE = 12;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final int mBufferSize;
+    private final int mKeyframeInterval;
+    private final FileChannel mChannel;
+    private final FileChannel mIndexChannel;
+    private final ByteBuffer mOut;
+    private final ByteBuffer mIndexOut;
+    /** encoded delta, a delta larger than a keyframe is recorded as keyframe */
+    private final ByteBuffer mDelta;
+    private long mPosition;
+    private int mLastKeyframe;
+    private int mLastGeneration;
+
+    /**
+     * @param file recording, overwritten if it exists
+     * @param width count of cells per row
+     * @param height count of rows of cells
+     * @param keyframeInterval count of generations after which a keyframe is recorded
+     */
+    LifeRecorder(File file, int width, int height, int keyframeInterval) throws IOException {
+        mBufferSize = (int) (((long) width * height + 7) / 8);
+        mKeyframeInterval = keyframeInterval;
+        mChannel = new FileOutputStream(file).getChannel();
+        mIndexChannel = new FileOutputStream(indexFile(file)).getChannel();
+        mOut = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        mIndexOut = ByteBuffer.allocateDirect(INDEX_ENTRY_SIZE);
+        mDelta = ByteBuffer.allocateDirect(mBufferSize);
+        mLastKeyframe = Integer.MIN_VALUE;
+        mLastGeneration = Integer.MIN_VALUE;
+
+        mOut.putInt(MAGIC);
+        mOut.putInt(VERSION);
+        mOut.putInt(width);
+        mOut.putInt(height);
+        mOut.putInt(keyframeInterval);
+        mPosition = HEADER_SIZE;
+    }
+
+    static File indexFile(File file) {
+        return new File(file.getPath() + INDEX_SUFFIX);
+    }
+
+    /**
+     * records one generation
+     * 
+     * @param cells all cells of the generation, one bit per cell
+     * @param life cells which have just been born or died, one bit per cell
+     */
+    void append(int generation, ByteBuffer cells, ByteBuffer life) throws IOException {
+        boolean keyframe = generation != mLastGeneration + 1
+                || generation - mLastKeyframe >= mKeyframeInterval
+                || !encodeDelta(life);
+        if (keyframe) {
+            long position = mPosition;
+            ByteBuffer payload = cells.duplicate();
+            payload.position(0).limit(mBufferSize);
+            writeRecord(RECORD_KEYFRAME, generation, payload);
+
+            mIndexOut.clear();
+            mIndexOut.putInt(generation);
+            mIndexOut.putLong(position);
+            mIndexOut.flip();
+            // index entries point to records already written, so flush them first
+            flush();
+            while (mIndexOut.hasRemaining()) {
+                mIndexChannel.write(mIndexOut);
+            }
+            mLastKeyframe = generation;
+        } else {
+            mDelta.flip();
+            writeRecord(RECORD_DELTA, generation, mDelta);
+        }
+        mLastGeneration = generation;
+    }
+
+    /**
+     * writes all buffered records to the file
+     */
+    void flush() throws IOException {
+        mOut.flip();
+        while (mOut.hasRemaining()) {
+            mChannel.write(mOut);
+        }
+        mOut.clear();
+    }
+
+    void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            mChannel.close();
+            mIndexChannel.close();
+        }
+    }
+
+    private void writeRecord(byte type, int generation, ByteBuffer payload) throws IOException {
+        if (mOut.remaining() < RECORD_HEADER_SIZE) {
+            flush();
+        }
+        mOut.put(type);
+        mOut.putInt(generation);
+        mOut.putInt(payload.remaining());
+        mPosition += RECORD_HEADER_SIZE + payload.remaining();
+        if (payload.remaining() <= mOut.remaining()) {
+            mOut.put(payload);
+        } else {
+            flush();
+            while (payload.hasRemaining()) {
+                mChannel.write(payload);
+            }
+        }
+    }
+
+    /**
+     * encodes the indexes of all born and died cells as gaps
+     * 
+     * @return false if the delta would not be smaller than a keyframe
+     */
+    private boolean encodeDelta(ByteBuffer life) {
+        final ByteBuffer out = mDelta;
+        final ByteBuffer in = life.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        out.clear();
+        long last = -1;
+        int i = 0;
+        // 64 cells at once, most of them are usually unchanged
+        for (; i + 8 <= mBufferSize; i += 8) {
+            long word = in.getLong(i);
+            while (word != 0) {
+                long index = ((long) i << 3) + Long.numberOfTrailingZeros(word);
+                if (!putVarInt(out, index - last - 1)) {
+                    return false;
+                }
+                last = index;
+                word &= word - 1;
+            }
+        }
+        for (; i < mBufferSize; i++) {
+            int bits = in.get(i) & 0xFF;
+            while (bits != 0) {
+                long index = ((long) i << 3) + Integer.numberOfTrailingZeros(bits);
+                if (!putVarInt(out, index - last - 1)) {
+                    return false;
+                }
+                last = index;
+                bits &= bits - 1;
+            }
+        }
+        return true;
+    }
+
+    private static boolean putVarInt(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            if (!out.hasRemaining()) {
+                return false;
+            }
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        if (!out.hasRemaining()) {
+            return false;
+        }
+        out.put((byte) value);
+        return true;
+    }
+}
@@ -18,6 +18,9 @@
 
 package com.chrulri.droidoflife;
 
+import java.io.File;
+import java.nio.ByteBuffer;
+
 import android.graphics.Bitmap;
 import android.graphics.Color;
 
@@ -31,19 +34,33 @@ final class LifeRuntime {
 
     static final int OK = 0;
     static final int E_INVALID_SIZE = 1;
+    static final int E_INVALID_DENSITY = 2;
+    static final int E_NO_RUNTIME = 3;
+
+    /** maximum count of cells per world */
+    static final int MAX_WORLD_SIZE = 1 << 29;
+    /** fixed point representation of a density of 1.0 */
+    static final int DENSITY_ONE = 1 << 16;
 
     static final int SETTINGS_SHOW_DEATHBIRTH = 0;
 
+    static final int COLOR_ALIVE = Color.GREEN;
+    static final int COLOR_BORN = 0xFF008800;
+    static final int COLOR_DIED = Color.GRAY;
+    static final int COLOR_DEAD = Color.BLACK;
+
     static {
         System.loadLibrary("dol");
     }
 
-    private static native int nRuntimeCreate(int width, int height);
+    private static native int nRuntimeCreate(int width, int height, long seed, int density, String storagePath);
 
     private static native void nRuntimeIterate();
 
     private static native void nRuntimeDestroy();
 
+    private static native int nRuntimeState(ByteBuffer cells, ByteBuffer life);
+
     private static native void nRuntimeBitmap(Bitmap bmp, int settings, int colorAlive, int colorBorn, int colorDied, int colorDead);
 
     /* ************************************************************************************************************* */
@@ -51,9 +68,15 @@ final class LifeRuntime {
     private static LifeRuntime mRUNTIME = null;
 
     private int mIteration;
+    private final int mWidth;
+    private final int mHeight;
+    private final long mSeed;
 
-    private LifeRuntime() {
+    private LifeRuntime(int width, int height, long seed) {
         mIteration = 0;
+        mWidth = width;
+        mHeight = height;
+        mSeed = seed;
     }
 
     public static int getIteration() {
@@ -62,17 +85,51 @@ final class LifeRuntime {
         return mRUNTIME.mIteration;
     }
 
+    public static int getWidth() {
+        if (mRUNTIME == null)
+            return 0;
+        return mRUNTIME.mWidth;
+    }
+
+    public static int getHeight() {
+        if (mRUNTIME == null)
+            return 0;
+        return mRUNTIME.mHeight;
+    }
+
     /**
-     * creates runtime
+     * @return size of a buffer holding one bit per cell
+     */
+    public static int getBufferSize() {
+        if (mRUNTIME == null)
+            return 0;
+        return (int) (((long) mRUNTIME.mWidth * mRUNTIME.mHeight + 7) / 8);
+    }
+
+    public static long getSeed() {
+        if (mRUNTIME == null)
+            return 0;
+        return mRUNTIME.mSeed;
+    }
+
+    /**
+     * creates runtime, the same seed and density always create the same world
      * 
      * @param width count of cells per row
      * @param height count of rows of cells
+     * @param seed seed of the initial random population
+     * @param density probability of a cell to be alive initially, from 0 to 1
+     * @param storage file to back the world with instead of memory, or null
      * @throws LifeRuntimeException
      */
-    public static void create(int width, int height) throws LifeRuntimeException {
-        mRUNTIME = new LifeRuntime();
-        int ret = nRuntimeCreate(width, height);
+    public static void create(int width, int height, long seed, float density, File storage)
+            throws LifeRuntimeException {
+        mRUNTIME = new LifeRuntime(width, height, seed);
+        int fixedDensity = LifeSeeder.density(density);
+        int ret = nRuntimeCreate(width, height, seed, fixedDensity,
+                storage != null ? storage.getAbsolutePath() : null);
         if (ret != OK) {
+            mRUNTIME = null;
             throw new LifeRuntimeException(
                     "failed to initialize the droid of life runtime", "_init", ret);
         }
@@ -94,7 +151,27 @@ final class LifeRuntime {
      * tell native runtime to render the scene
      */
     public static void render(Bitmap bmp, int settings) {
-        nRuntimeBitmap(bmp, settings, Color.GREEN, 0xFF008800, Color.GRAY, Color.BLACK);
+        nRuntimeBitmap(bmp, settings, COLOR_ALIVE, COLOR_BORN, COLOR_DIED, COLOR_DEAD);
+    }
+
+    /**
+     * copies the cells of the current generation, one bit per cell, and which of them have just been born or died
+     * 
+     * @param cells direct buffer of at least {@link #getBufferSize()} bytes
+     * @param life direct buffer of at least {@link #getBufferSize()} bytes
+     * @throws IllegalAccessException if runtime is not initialized yet
+     * @throws LifeRuntimeException if the buffers do not fit the world of the runtime
+     */
+    public static void state(ByteBuffer cells, ByteBuffer life) throws IllegalAccessException,
+            LifeRuntimeException {
+        checkRuntime();
+        int ret = nRuntimeState(cells, life);
+        if (ret == E_NO_RUNTIME) {
+            throw new IllegalAccessException("runtime is not initialized yet");
+        } else if (ret != OK) {
+            throw new LifeRuntimeException("buffers must be direct and hold " + getBufferSize() + " bytes",
+                    "_state", ret);
+        }
     }
 
     /**
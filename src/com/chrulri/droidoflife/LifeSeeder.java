@@ -0,0 +1,71 @@
+/******************************************************************************
+ *  Droid of Life, an open source Android game based on Conway's Game of Life *
+ *  Copyright (C) 2012  Christian Ulrich <chrulri@gmail.com>                  *
+ *                                                                            *
+ *  This program is free software: you can redistribute it and/or modify      *
+ *  it under the terms of the GNU General Public License as published by      *
+ *  the Free Software Foundation, either version 3 of the License, or         *
+ *  (at your option) any later version.                                       *
+ *                                                                            *
+ *  This program is distributed in the hope that it will be useful,           *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of            *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             *
+ *  GNU General Public License for more details.                              *
+ *                                                                            *
+ *  You should have received a copy of the GNU General Public License         *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.     *
+ ******************************************************************************/
+
+package com.chrulri.droidoflife;
+
+/**
+ * Droid of Life - Java twin of the native seeding, the same seed and density always give the same world
+ */
+final class LifeSeeder {
+    private LifeSeeder() {
+    }
+
+    /** fixed point precision of the density */
+    static final int DENSITY_BITS = 16;
+
+    /**
+     * SplitMix64 evaluated at an arbitrary counter
+     */
+    static long splitMix64(long seed, long counter) {
+        long z = seed + counter * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * @param seed seed of the world
+     * @param word index of the word, covering the cells 64 * word up to 64 * word + 63 in row-major order
+     * @param density fixed point density, {@link LifeRuntime#DENSITY_ONE} means every cell is alive
+     * @return 64 cells, the least significant bit is the first cell
+     */
+    static long word(long seed, long word, int density) {
+        if (density <= 0) {
+            return 0;
+        }
+        if (density >= LifeRuntime.DENSITY_ONE) {
+            return ~0L;
+        }
+        // combine random words along the binary fraction of the density, least significant bit first
+        long counter = word * DENSITY_BITS;
+        long result = 0;
+        for (int b = Integer.numberOfTrailingZeros(density); b < DENSITY_BITS; b++) {
+            long r = splitMix64(seed, counter + b);
+            result = (density & (1 << b)) != 0 ? (result | r) : (result & r);
+        }
+        return result;
+    }
+
+    /**
+     * @param density probability of a cell to be alive, from 0 to 1
+     * @return fixed point density
+     */
+    static int density(float density) {
+        return Math.round(Math.max(0, Math.min(1, density)) * LifeRuntime.DENSITY_ONE);
+    }
+}
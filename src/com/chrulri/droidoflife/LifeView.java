@@ -18,6 +18,8 @@
 
 package com.chrulri.droidoflife;
 
+import java.util.concurrent.locks.ReentrantLock;
+
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.graphics.Bitmap;
@@ -25,7 +27,9 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Matrix.ScaleToFit;
+import android.graphics.Paint;
 import android.graphics.RectF;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.util.AttributeSet;
 import android.view.GestureDetector;
@@ -35,7 +39,7 @@ import android.view.ScaleGestureDetector;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 
-public class LifeView extends SurfaceView {
+public class LifeView extends SurfaceView implements LifeFrameSink {
     static final String TAG = LifeView.class.getSimpleName();
 
     private int mSettings;
@@ -45,6 +49,32 @@ public class LifeView extends SurfaceView {
     private final RectF mSource = new RectF();
     private GestureDetector mDragGesture;
     private ScaleGestureDetector mZoomGesture;
+    /** pixels of one row of recorded frames */
+    private int[] mFrameRow;
+    /** reused for matrix validation, gestures must not allocate anything */
+    private final float[] mValues = new float[9];
+    /** matrix of the last drawn frame */
+    private final Matrix mDrawnMatrix = new Matrix();
+    /** held while the bitmap is written or drawn, the UI thread never waits for it */
+    private final ReentrantLock mBitmapLock = new ReentrantLock();
+    /** true from a frame request until the frame is drawn */
+    private volatile boolean mFramePending;
+    private long mLastFrameMs;
+    private final Runnable mFrameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (drawFrame()) {
+                mFramePending = false;
+            } else if (!postDelayed(this, Setup.FRAME_INTERVAL_MS)) {
+                // bitmap is being written, try again next frame
+                mFramePending = false;
+            }
+        }
+    };
+    /** debug overlay, null if disabled */
+    private FrameStats mFrameStats;
+    private final char[] mStatsText = new char[128];
+    private final Paint mStatsPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
 
     public LifeView(Context context) {
         super(context);
@@ -70,7 +100,9 @@ public class LifeView extends SurfaceView {
 
             @Override
             public void surfaceCreated(SurfaceHolder holder) {
-                performRender(false);
+                if (!drawFrame()) {
+                    requestFrame();
+                }
             }
 
             @Override
@@ -78,10 +110,14 @@ public class LifeView extends SurfaceView {
                     int height) {
                 mBounds.set(0, 0, width, height);
                 mMatrix.setRectToRect(mSource, mBounds, ScaleToFit.CENTER);
-                performRender(false);
+                if (!drawFrame()) {
+                    requestFrame();
+                }
             }
         });
 
+        mStatsPaint.setColor(Color.WHITE);
+
         mDragGesture = new GestureDetector(getContext(),
                 new SimpleOnGestureListener() {
                     @Override
@@ -137,11 +173,33 @@ public class LifeView extends SurfaceView {
         return super.onTouchEvent(event);
     }
 
+    /**
+     * creates an empty bitmap, the caller renders into it with {@link #performRender(boolean)} off the UI thread
+     * 
+     * @param width count of cells per row
+     * @param height count of rows of cells
+     */
     public void createBitmap(int width, int height) {
-        mBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-        mSource.set(0, 0, width, height);
+        // huge worlds get one pixel per scale x scale cells, but never less than one pixel per side
+        int scale = 1;
+        int bitmapWidth = width;
+        int bitmapHeight = height;
+        while ((long) bitmapWidth * bitmapHeight > Setup.MAX_BITMAP_SIZE) {
+            scale++;
+            bitmapWidth = Math.max(1, width / scale);
+            bitmapHeight = Math.max(1, height / scale);
+        }
+        mBitmap = Bitmap.createBitmap(bitmapWidth, bitmapHeight, Bitmap.Config.ARGB_8888);
+        mSource.set(0, 0, bitmapWidth, bitmapHeight);
         mMatrix.setRectToRect(mSource, mBounds, ScaleToFit.CENTER);
-        performRender(true);
+    }
+
+    /**
+     * drops the bitmap while the runtime creates a new world, nothing is rendered until the next
+     * {@link #createBitmap(int, int)}
+     */
+    public void releaseBitmap() {
+        mBitmap = null;
     }
 
     public void loadRuntimeSettings() {
@@ -151,28 +209,145 @@ public class LifeView extends SurfaceView {
         if (prefs.getBoolean(Setup.PREF_SHOW_DEATHBIRTH, false)) {
             mSettings |= (1 << LifeRuntime.SETTINGS_SHOW_DEATHBIRTH);
         }
-        performRender(true);
+        if (prefs.getBoolean(Setup.PREF_FRAME_STATS, false)) {
+            if (mFrameStats == null) {
+                mFrameStats = new FrameStats();
+            }
+        } else if (mFrameStats != null) {
+            mFrameStats.log();
+            mFrameStats.stop();
+            mFrameStats = null;
+        }
     }
 
+    /**
+     * dumps the frame statistics to the log, if enabled
+     */
+    public void logFrameStats() {
+        if (mFrameStats != null) {
+            mFrameStats.log();
+        }
+    }
+
+    /**
+     * requests to draw the world, may be called from any thread
+     * 
+     * @param renderLife true to render the runtime's current generation first, which waits for a generation being
+     *            computed, so never on the UI thread
+     */
     public void performRender(boolean renderLife) {
-        if (mBitmap != null) {
+        final Bitmap bitmap = mBitmap;
+        if (bitmap != null) {
             if (renderLife) {
-                LifeRuntime.render(mBitmap, mSettings);
+                mBitmapLock.lock();
+                try {
+                    LifeRuntime.render(bitmap, mSettings);
+                } finally {
+                    mBitmapLock.unlock();
+                }
+            }
+            requestFrame();
+        }
+    }
+
+    /**
+     * draws at most once per display frame, no matter how often it is requested
+     */
+    private void requestFrame() {
+        if (mFramePending) {
+            return;
+        }
+        mFramePending = true;
+        long delay = mLastFrameMs + Setup.FRAME_INTERVAL_MS - SystemClock.uptimeMillis();
+        if (!postDelayed(mFrameRunnable, Math.max(0, delay))) {
+            mFramePending = false;
+        }
+    }
+
+    /**
+     * draws the world on the surface, must be called from the UI thread
+     * 
+     * @return false if the bitmap is being written, so nothing was drawn
+     */
+    private boolean drawFrame() {
+        final Bitmap bitmap = mBitmap;
+        if (bitmap == null) {
+            return true;
+        }
+        // never draw half of a generation
+        if (!mBitmapLock.tryLock()) {
+            return false;
+        }
+        try {
+            final FrameStats stats = mFrameStats;
+            if (stats != null) {
+                stats.begin();
             }
+            mLastFrameMs = SystemClock.uptimeMillis();
 
             Canvas canvas = getHolder().lockCanvas();
             if (canvas != null) {
                 canvas.drawColor(Color.BLACK);
-                canvas.drawBitmap(mBitmap, mMatrix, null);
+                canvas.drawBitmap(bitmap, mMatrix, null);
+                mDrawnMatrix.set(mMatrix);
+                if (stats != null) {
+                    int len = stats.format(mStatsText);
+                    canvas.drawText(mStatsText, 0, len, 0, -mStatsPaint.ascent(), mStatsPaint);
+                }
                 getHolder().unlockCanvasAndPost(canvas);
             }
+
+            if (stats != null) {
+                stats.end();
+            }
+        } finally {
+            mBitmapLock.unlock();
         }
+        return true;
+    }
+
+    /**
+     * renders a recorded generation instead of the runtime's one, generations arriving faster than they can be
+     * drawn are dropped
+     */
+    @Override
+    public void onFrame(int generation, int width, int height, byte[] cells, byte[] life) {
+        final Bitmap bitmap = mBitmap;
+        if (bitmap == null || mFramePending) {
+            return;
+        }
+        final boolean showDeathBirth = (mSettings & (1 << LifeRuntime.SETTINGS_SHOW_DEATHBIRTH)) != 0;
+        final int bitmapWidth = bitmap.getWidth();
+        final int bitmapHeight = bitmap.getHeight();
+        if (mFrameRow == null || mFrameRow.length != bitmapWidth) {
+            mFrameRow = new int[bitmapWidth];
+        }
+        final int[] row = mFrameRow;
+        mBitmapLock.lock();
+        try {
+            // pick one cell per pixel like the native runtime does
+            for (int y = 0; y < bitmapHeight; y++) {
+                long first = (long) y * height / bitmapHeight * width;
+                for (int x = 0; x < bitmapWidth; x++) {
+                    long i = first + (long) x * width / bitmapWidth;
+                    int bit = 1 << (int) (i & 7);
+                    boolean alive = (cells[(int) (i >>> 3)] & bit) != 0;
+                    boolean changed = showDeathBirth && (life[(int) (i >>> 3)] & bit) != 0;
+                    row[x] = alive ? (changed ? LifeRuntime.COLOR_BORN : LifeRuntime.COLOR_ALIVE)
+                            : (changed ? LifeRuntime.COLOR_DIED : LifeRuntime.COLOR_DEAD);
+                }
+                bitmap.setPixels(row, 0, bitmapWidth, 0, y, bitmapWidth, 1);
+            }
+        } finally {
+            mBitmapLock.unlock();
+        }
+        performRender(false);
     }
 
     public void performZoom(float centerX, float centerY, float zoom) {
         mMatrix.postScale(zoom, zoom, centerX, centerY);
         // validate matrix
-        float[] values = new float[9];
+        final float[] values = mValues;
         mMatrix.getValues(values);
         float widthS = values[Matrix.MSCALE_X] * mSource.width();
         float heightS = values[Matrix.MSCALE_Y] * mSource.height();
@@ -181,18 +356,27 @@ public class LifeView extends SurfaceView {
         }
 
         validateMatrix();
-        performRender(false);
+        requestGestureFrame();
     }
 
     public void performDrag(float deltaX, float deltaY) {
         mMatrix.postTranslate(-deltaX, -deltaY);
 
         validateMatrix();
-        performRender(false);
+        requestGestureFrame();
+    }
+
+    /**
+     * gestures only move the world, nothing to draw if it is already where it is
+     */
+    private void requestGestureFrame() {
+        if (!mMatrix.equals(mDrawnMatrix)) {
+            requestFrame();
+        }
     }
 
     private void validateMatrix() {
-        float[] values = new float[9];
+        final float[] values = mValues;
         mMatrix.getValues(values);
         float minLeft = mBounds.width() - (values[Matrix.MSCALE_X] * mSource.width());
         float minTop = mBounds.height() - (values[Matrix.MSCALE_Y] * mSource.height());
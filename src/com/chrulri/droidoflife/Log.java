@@ -28,6 +28,10 @@ public final class Log {
         }
     }
 
+    public static void info(String tag, String msg, Object... args) {
+        android.util.Log.i(tag, String.format(msg, args));
+    }
+
     public static void error(String tag, String msg, Throwable t, Object... args) {
         android.util.Log.e(tag, String.format(msg, args), t);
     }
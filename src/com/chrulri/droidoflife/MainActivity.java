@@ -18,11 +18,22 @@
 
 package com.chrulri.droidoflife;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import android.app.ActivityManager;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.PowerManager;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.widget.Toast;
 
 import com.actionbarsherlock.app.SherlockFragmentActivity;
 import com.actionbarsherlock.view.Menu;
@@ -34,53 +45,217 @@ public class MainActivity extends SherlockFragmentActivity {
 
     static final int RESULT_SETTINGS = 0xF0;
 
+    private static final int RUNTIME_APPLY = 0;
+    private static final int RUNTIME_ITERATE = 1;
+    private static final int RUNTIME_RENDER = 2;
+    private static final int RUNTIME_DESTROY = 3;
+
+    private CreateTask mCreateTask;
     private IterationTask mIterationTask;
+    private ReplayTask mReplayTask;
     private LifeView mLifeView;
+    private boolean mResumed;
+    /** guards the runtime and the recorder, the UI thread must never wait for it */
+    private final ReentrantLock mRuntimeLock = new ReentrantLock();
+    /** recording wanted by the settings */
+    private volatile boolean mRecord;
+    /** true if {@link #mRecord} is to be applied by the next holder of {@link #mRuntimeLock} */
+    private final AtomicBoolean mRecordChanged = new AtomicBoolean();
+    private LifeRecorder mRecorder;
+    private ByteBuffer mRecordCells;
+    private ByteBuffer mRecordLife;
+    /** reused to build the title, which is refreshed on every generation */
+    private final StringBuilder mTitle = new StringBuilder();
+    private CharSequence mAutoShort;
+    private CharSequence mReplayShort;
+    private int mTitleIteration = -1;
+    private int mTitleMode = -1;
 
     private void refreshTitle() {
-        String title = "";
+        int iteration = mReplayTask != null ? mReplayTask.mGeneration : LifeRuntime.getIteration();
+        int mode = (mReplayTask != null ? 1 : 0) | (mIterationTask != null ? 2 : 0);
+        if (iteration == mTitleIteration && mode == mTitleMode) {
+            return;
+        }
+        mTitleIteration = iteration;
+        mTitleMode = mode;
+
+        final StringBuilder title = mTitle;
+        title.setLength(0);
         // append iteration
-        int iteration = LifeRuntime.getIteration();
         if (iteration > 0) {
-            title += " #" + iteration;
+            title.append(" #").append(iteration);
+        }
+        // append replay mode
+        if (mReplayTask != null) {
+            title.append(" - ").append(mReplayShort);
         }
         // append automatic mode
         if (mIterationTask != null) {
-            title += " - " + getText(R.string.auto_short);
+            title.append(" - ").append(mAutoShort);
         }
-        setTitle(title);
+        setTitle(title.toString());
     }
 
+    /**
+     * creates a new world in the background, nothing is rendered until it is created
+     */
     private void restartRuntime() {
-        LifeRuntime.destroy();
-
-        // TODO ask for width/height
-        final int width = 200;
-        final int height = 100;
+        if (mCreateTask != null) {
+            // a new world is on its way already
+            return;
+        }
+        mLifeView.releaseBitmap();
+        // automatic mode goes on once the world is created, tasks run one after another on newer platforms
+        if (mIterationTask != null) {
+            mIterationTask.cancel(false);
+        }
 
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        int width = getIntPreference(prefs, Setup.PREF_WORLD_WIDTH, Setup.DEFAULT_WORLD_WIDTH);
+        int height = getIntPreference(prefs, Setup.PREF_WORLD_HEIGHT, Setup.DEFAULT_WORLD_HEIGHT);
+        if (width <= 0 || height <= 0 || (long) width * height > LifeRuntime.MAX_WORLD_SIZE) {
+            Log.debug(TAG, "%dx%d is no valid world size, fall back to default", width, height);
+            width = Setup.DEFAULT_WORLD_WIDTH;
+            height = Setup.DEFAULT_WORLD_HEIGHT;
+        }
+        final float density = getIntPreference(prefs, Setup.PREF_DENSITY,
+                Setup.DEFAULT_DENSITY_PERCENT) / 100f;
+        // empty seed means a new world on every restart
+        final String seedPref = prefs.getString(Setup.PREF_SEED, "").trim();
+        final boolean randomSeed = seedPref.length() == 0;
+        long seed;
         try {
-            LifeRuntime.create(width, height);
-        } catch (LifeRuntimeException e) {
-            Log.error(TAG, "restartRuntime()", e);
-            // TODO show error
+            seed = randomSeed ? System.nanoTime() : Long.parseLong(seedPref);
+        } catch (NumberFormatException e) {
+            seed = seedPref.hashCode();
+        }
 
-            // emergency exit
-            finish();
+        // worlds exceeding the memory budget of this app are backed by a file
+        ActivityManager am = (ActivityManager) getSystemService(Context.ACTIVITY_SERVICE);
+        long budget = (long) (am.getMemoryClass() * 1024L * 1024L * Setup.MAX_MEMORY_WORLD_RATIO);
+        long required = 3 * (((long) width * height + 7) / 8);
+        File storage = required > budget ? new File(getCacheDir(), Setup.WORLD_STORAGE_FILE) : null;
+
+        Log.debug(TAG, "create %dx%d world (seed %d, density %f, storage %s)", width, height,
+                seed, density, storage);
+        mCreateTask = new CreateTask(width, height, seed, density, storage, randomSeed);
+        mCreateTask.execute();
+    }
+
+    /**
+     * starts or stops recording depending on the settings, off the UI thread
+     */
+    private void updateRecording() {
+        mRecord = PreferenceManager.getDefaultSharedPreferences(this).getBoolean(Setup.PREF_RECORD, false);
+        mRecordChanged.set(true);
+        // a running iteration or world creation applies it when done with the runtime
+        if (mIterationTask == null && mCreateTask == null && !mRuntimeLock.isLocked()) {
+            new RuntimeTask(RUNTIME_APPLY).execute();
+        }
+    }
+
+    /**
+     * renders the runtime's generation off the UI thread, unless a running task renders anyway
+     */
+    private void requestRender() {
+        if (mIterationTask == null && mCreateTask == null && mReplayTask == null) {
+            new RuntimeTask(RUNTIME_RENDER).execute();
+        }
+    }
+
+    private void lockRuntime() {
+        mRuntimeLock.lock();
+    }
+
+    private void unlockRuntime() {
+        // settings changed while the runtime was busy are applied by whoever held it
+        do {
+            if (mRecordChanged.getAndSet(false)) {
+                applyRecording();
+            }
+            mRuntimeLock.unlock();
+        } while (mRecordChanged.get() && mRuntimeLock.tryLock());
+    }
+
+    /**
+     * caller must hold {@link #mRuntimeLock}
+     */
+    private void applyRecording() {
+        if (!mRecord) {
+            stopRecording();
+        } else if (mRecorder == null && LifeRuntime.getBufferSize() > 0) {
+            try {
+                mRecorder = new LifeRecorder(new File(getFilesDir(), Setup.RECORDING_FILE),
+                        LifeRuntime.getWidth(), LifeRuntime.getHeight(), Setup.RECORDING_KEYFRAME_INTERVAL);
+            } catch (IOException e) {
+                Log.error(TAG, "failed to start recording", e);
+                return;
+            }
+            mRecordCells = ByteBuffer.allocateDirect(LifeRuntime.getBufferSize());
+            mRecordLife = ByteBuffer.allocateDirect(LifeRuntime.getBufferSize());
+            record();
+        }
+    }
+
+    /**
+     * appends the current generation to the recording, caller must hold {@link #mRuntimeLock}
+     */
+    private void record() {
+        final LifeRecorder recorder = mRecorder;
+        if (recorder == null) {
             return;
         }
+        try {
+            LifeRuntime.state(mRecordCells, mRecordLife);
+            recorder.append(LifeRuntime.getIteration(), mRecordCells, mRecordLife);
+        } catch (IllegalAccessException e) {
+            Log.error(TAG, "error on recording", e);
+            stopRecording();
+        } catch (LifeRuntimeException e) {
+            Log.error(TAG, "error on recording", e);
+            stopRecording();
+        } catch (IOException e) {
+            Log.error(TAG, "error on recording", e);
+            stopRecording();
+        }
+    }
 
-        mLifeView.createBitmap(width, height);
+    /**
+     * caller must hold {@link #mRuntimeLock}
+     */
+    private void stopRecording() {
+        if (mRecorder != null) {
+            try {
+                mRecorder.close();
+            } catch (IOException e) {
+                Log.error(TAG, "failed to stop recording", e);
+            }
+            mRecorder = null;
+            mRecordCells = null;
+            mRecordLife = null;
+        }
+    }
 
-        refreshTitle();
+    private static int getIntPreference(SharedPreferences prefs, String key, int defValue) {
+        try {
+            return Integer.parseInt(prefs.getString(key, String.valueOf(defValue)).trim());
+        } catch (NumberFormatException e) {
+            return defValue;
+        }
     }
 
     private boolean doIteration() {
+        lockRuntime();
         try {
             LifeRuntime.iterate();
             mLifeView.performRender(true);
+            record();
         } catch (IllegalAccessException e) {
             Log.error(TAG, "error on iteration", e);
             return false;
+        } finally {
+            unlockRuntime();
         }
         return true;
     }
@@ -90,8 +265,12 @@ public class MainActivity extends SherlockFragmentActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.main);
 
+        mAutoShort = getText(R.string.auto_short);
+        mReplayShort = getText(R.string.replay_short);
+
         mLifeView = (LifeView) findViewById(R.id.main_lifeView);
         mLifeView.loadRuntimeSettings();
+        mRecord = PreferenceManager.getDefaultSharedPreferences(this).getBoolean(Setup.PREF_RECORD, false);
 
         restartRuntime();
 
@@ -101,8 +280,12 @@ public class MainActivity extends SherlockFragmentActivity {
     @Override
     protected void onResume() {
         super.onResume();
-        // restart iteration
-        if (mIterationTask != null) {
+        mResumed = true;
+        // restart replay or iteration, a world being created restarts iteration itself
+        if (mReplayTask != null) {
+            mReplayTask = new ReplayTask(mReplayTask.mGeneration);
+            mReplayTask.execute();
+        } else if (mIterationTask != null && mCreateTask == null) {
             mIterationTask = new IterationTask();
             mIterationTask.execute();
         }
@@ -111,7 +294,12 @@ public class MainActivity extends SherlockFragmentActivity {
     @Override
     protected void onPause() {
         super.onPause();
-        // pause iteration
+        mResumed = false;
+        mLifeView.logFrameStats();
+        // pause replay or iteration
+        if (mReplayTask != null) {
+            mReplayTask.cancel(false);
+        }
         if (mIterationTask != null) {
             mIterationTask.cancel(false);
         }
@@ -122,8 +310,14 @@ public class MainActivity extends SherlockFragmentActivity {
         super.onDestroy();
         // remove iteration task
         mIterationTask = null;
-        // destroy life with a nuclear bomb (!!)
-        LifeRuntime.destroy();
+        mReplayTask = null;
+        if (mCreateTask != null) {
+            // destroys the world once it is created
+            mCreateTask.cancel(false);
+            mCreateTask = null;
+        } else {
+            new RuntimeTask(RUNTIME_DESTROY).execute();
+        }
     }
 
     @Override
@@ -137,17 +331,20 @@ public class MainActivity extends SherlockFragmentActivity {
         switch (item.getItemId()) {
             case R.id.mi_manually:
                 Log.debug(TAG, "trigger manual iteration");
+                stopReplay();
                 // disable iteration task for manual mode
                 if (mIterationTask != null) {
                     mIterationTask.cancel(false);
                     mIterationTask = null;
-                } else {
-                    doIteration();
+                } else if (mCreateTask == null) {
+                    // a generation of a huge world takes a while
+                    new RuntimeTask(RUNTIME_ITERATE).execute();
                 }
                 refreshTitle();
                 break;
             case R.id.mi_automatic:
                 Log.debug(TAG, "toggle automatic mode");
+                stopReplay();
                 if (mIterationTask == null) {
                     mIterationTask = new IterationTask();
                     mIterationTask.execute();
@@ -159,8 +356,24 @@ public class MainActivity extends SherlockFragmentActivity {
                 return true;
             case R.id.mi_restart:
                 Log.debug(TAG, "restart game of life");
+                stopReplay();
                 restartRuntime();
                 return true;
+            case R.id.mi_replay:
+                Log.debug(TAG, "replay recording");
+                if (mCreateTask != null) {
+                    // recording is stopped while the world is being created
+                    return true;
+                }
+                if (mIterationTask != null) {
+                    mIterationTask.cancel(false);
+                    mIterationTask = null;
+                }
+                stopReplay();
+                mReplayTask = new ReplayTask(0);
+                mReplayTask.execute();
+                refreshTitle();
+                return true;
             case R.id.mi_settings:
                 Log.debug(TAG, "open settings activity");
                 startActivityForResult(new Intent(this, SettingsActivity.class),
@@ -184,12 +397,152 @@ public class MainActivity extends SherlockFragmentActivity {
         switch (requestCode) {
             case RESULT_SETTINGS:
                 mLifeView.loadRuntimeSettings();
+                if (mReplayTask == null) {
+                    requestRender();
+                }
+                updateRecording();
                 break;
             default:
                 super.onActivityResult(requestCode, resultCode, data);
         }
     }
 
+    private void stopReplay() {
+        if (mReplayTask != null) {
+            mReplayTask.cancel(false);
+            mReplayTask = null;
+            // back to the runtime's world, unless it is still being created
+            if (mCreateTask == null) {
+                mLifeView.createBitmap(LifeRuntime.getWidth(), LifeRuntime.getHeight());
+                requestRender();
+            }
+        }
+    }
+
+    private class CreateTask extends AsyncTask<Void, Void, Boolean> {
+        private final int mWidth;
+        private final int mHeight;
+        private final long mSeed;
+        private final float mDensity;
+        private final File mStorage;
+        private final boolean mRandomSeed;
+
+        CreateTask(int width, int height, long seed, float density, File storage, boolean randomSeed) {
+            mWidth = width;
+            mHeight = height;
+            mSeed = seed;
+            mDensity = density;
+            mStorage = storage;
+            mRandomSeed = randomSeed;
+        }
+
+        @Override
+        protected Boolean doInBackground(Void... params) {
+            // huge worlds take a while to seed, so never on the UI thread
+            lockRuntime();
+            try {
+                stopRecording();
+                LifeRuntime.destroy();
+                LifeRuntime.create(mWidth, mHeight, mSeed, mDensity, mStorage);
+            } catch (LifeRuntimeException e) {
+                Log.error(TAG, "restartRuntime()", e);
+                return false;
+            } finally {
+                // recording starts over with the new world
+                mRecordChanged.set(true);
+                unlockRuntime();
+            }
+            return true;
+        }
+
+        @Override
+        protected void onCancelled() {
+            // activity is gone
+            new RuntimeTask(RUNTIME_DESTROY).execute();
+        }
+
+        @Override
+        protected void onPostExecute(Boolean result) {
+            mCreateTask = null;
+            if (!result) {
+                if (mWidth == Setup.DEFAULT_WORLD_WIDTH && mHeight == Setup.DEFAULT_WORLD_HEIGHT) {
+                    // emergency exit
+                    finish();
+                    return;
+                }
+                Toast.makeText(MainActivity.this, getString(R.string.world_failed, mWidth, mHeight),
+                        Toast.LENGTH_LONG).show();
+                // the settings must not fail every launch, so back to the default size
+                PreferenceManager.getDefaultSharedPreferences(MainActivity.this).edit()
+                        .remove(Setup.PREF_WORLD_WIDTH).remove(Setup.PREF_WORLD_HEIGHT).commit();
+                restartRuntime();
+                return;
+            }
+            Log.info(TAG, "created %dx%d world of seed %d", LifeRuntime.getWidth(), LifeRuntime.getHeight(),
+                    LifeRuntime.getSeed());
+            if (mRandomSeed) {
+                // enter this seed in the settings to get the same world again
+                Toast.makeText(MainActivity.this, getString(R.string.seed_random, LifeRuntime.getSeed()),
+                        Toast.LENGTH_LONG).show();
+            }
+
+            mLifeView.createBitmap(LifeRuntime.getWidth(), LifeRuntime.getHeight());
+
+            if (mResumed && mIterationTask != null && mIterationTask.isCancelled()) {
+                mIterationTask = new IterationTask();
+                mIterationTask.execute();
+            }
+            requestRender();
+
+            refreshTitle();
+        }
+    }
+
+    /**
+     * works with the runtime without blocking the UI thread, changed settings are applied in any case
+     */
+    private class RuntimeTask extends AsyncTask<Void, Void, Void> {
+        private final int mWork;
+
+        /**
+         * @param work one of RUNTIME_APPLY, RUNTIME_ITERATE, RUNTIME_RENDER or RUNTIME_DESTROY
+         */
+        RuntimeTask(int work) {
+            mWork = work;
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            if (mWork == RUNTIME_ITERATE) {
+                doIteration();
+                return null;
+            }
+            lockRuntime();
+            try {
+                switch (mWork) {
+                    case RUNTIME_RENDER:
+                        mLifeView.performRender(true);
+                        break;
+                    case RUNTIME_DESTROY:
+                        stopRecording();
+                        // destroy life with a nuclear bomb (!!)
+                        LifeRuntime.destroy();
+                        break;
+                }
+            } finally {
+                unlockRuntime();
+            }
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Void result) {
+            if (mWork == RUNTIME_ITERATE) {
+                refreshTitle();
+            }
+        }
+    }
+
     private class IterationTask extends AsyncTask<Void, Void, Void> {
 
         @Override
@@ -231,4 +584,119 @@ public class MainActivity extends SherlockFragmentActivity {
             mIterationTask = null;
         }
     }
+
+    private class ReplayTask extends AsyncTask<Void, Void, Void> implements LifeFrameSink {
+        private final int mFrom;
+        private volatile int mGeneration;
+        private LifePlayer mPlayer;
+        private boolean mResized;
+        private long mLastProgressMs;
+
+        ReplayTask(int from) {
+            mFrom = from;
+            mGeneration = from;
+        }
+
+        @Override
+        public void onFrame(int generation, int width, int height, byte[] cells, byte[] life) {
+            mLifeView.onFrame(generation, width, height, cells, life);
+            mGeneration = generation;
+            // the title does not need to follow every frame
+            long now = SystemClock.uptimeMillis();
+            if (now - mLastProgressMs >= Setup.ITERATION_DELAY_MS) {
+                mLastProgressMs = now;
+                publishProgress();
+            }
+        }
+
+        @Override
+        protected void onPreExecute() {
+            File file = new File(getFilesDir(), Setup.RECORDING_FILE);
+            if (!file.exists()) {
+                Log.debug(TAG, "nothing recorded yet");
+                return;
+            }
+            try {
+                mPlayer = new LifePlayer(file);
+            } catch (IOException e) {
+                Log.error(TAG, "error on replay", e);
+                return;
+            }
+            if (mPlayer.width != LifeRuntime.getWidth() || mPlayer.height != LifeRuntime.getHeight()) {
+                mLifeView.createBitmap(mPlayer.width, mPlayer.height);
+                mResized = true;
+            }
+        }
+
+        @Override
+        protected void onProgressUpdate(Void... values) {
+            refreshTitle();
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            final LifePlayer player = mPlayer;
+            if (player == null) {
+                return null;
+            }
+            try {
+                // waits for the generation being computed, if any
+                lockRuntime();
+                try {
+                    if (mRecorder != null) {
+                        mRecorder.flush();
+                    }
+                } catch (IOException e) {
+                    Log.error(TAG, "error on recording", e);
+                } finally {
+                    unlockRuntime();
+                }
+                if (!player.seek(mFrom)) {
+                    return null;
+                }
+                onFrame(player.getGeneration(), player.width, player.height, player.cells(), player.life());
+                // as fast as possible, no simulation involved
+                while (!isCancelled() && player.play(this, 1) > 0) {
+                    // next generation
+                }
+            } catch (IOException e) {
+                Log.error(TAG, "error on replay", e);
+            }
+            return null;
+        }
+
+        /**
+         * on the UI thread after the task ended or, if cancelled before it started, instead of it
+         */
+        private void closePlayer() {
+            if (mPlayer != null) {
+                try {
+                    mPlayer.close();
+                } catch (IOException e) {
+                    Log.error(TAG, "error on replay", e);
+                }
+                mPlayer = null;
+            }
+        }
+
+        @Override
+        protected void onCancelled() {
+            closePlayer();
+        }
+
+        @Override
+        protected void onPostExecute(Void result) {
+            closePlayer();
+            if (mReplayTask == this) {
+                mReplayTask = null;
+                // replay stays on its last generation until the next iteration, unless the recorded world has
+                // another size than the runtime's one
+                if (mResized && mCreateTask == null) {
+                    mLifeView.createBitmap(LifeRuntime.getWidth(), LifeRuntime.getHeight());
+                    requestRender();
+                }
+            }
+            refreshTitle();
+        }
+    }
 }
@@ -0,0 +1,111 @@
+/******************************************************************************
+ *  Droid of Life, an open source Android game based on Conway's Game of Life *
+ *  Copyright (C) 2012  Christian Ulrich <chrulri@gmail.com>                  *
+ *                                                                            *
+ *  This program is free software: you can redistribute it and/or modify      *
+ *  it under the terms of the GNU General Public License as published by      *
+ *  the Free Software Foundation, either version 3 of the License, or         *
+ *  (at your option) any later version.                                       *
+ *                                                                            *
+ *  This program is distributed in the hope that it will be useful,           *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of            *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             *
+ *  GNU General Public License for more details.                              *
+ *                                                                            *
+ *  You should have received a copy of the GNU General Public License         *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.     *
+ ******************************************************************************/
+
+package com.chrulri.droidoflife;
+
+/**
+ * Droid of Life - geometry of one rectangular part of a world split into tilesX x tilesY partitions
+ */
+final class Partition {
+    /** count of directions to neighbour partitions */
+    static final int DIRECTIONS = 8;
+    /** column offset per direction, the opposite direction of d is DIRECTIONS - 1 - d */
+    static final int[] DX = { -1, 0, 1, -1, 1, -1, 0, 1 };
+    /** row offset per direction */
+    static final int[] DY = { -1, -1, -1, 0, 0, 1, 1, 1 };
+
+    final int worldWidth;
+    final int worldHeight;
+    final int tilesX;
+    final int tilesY;
+    final int id;
+    final int tileX;
+    final int tileY;
+    /** world column of the first cell */
+    final int x;
+    /** world row of the first cell */
+    final int y;
+    final int width;
+    final int height;
+
+    Partition(int worldWidth, int worldHeight, int tilesX, int tilesY, int id) {
+        if (tilesX <= 0 || tilesY <= 0 || tilesX > worldWidth || tilesY > worldHeight) {
+            throw new IllegalArgumentException(tilesX + "x" + tilesY + " partitions do not fit into "
+                    + worldWidth + "x" + worldHeight);
+        }
+        this.worldWidth = worldWidth;
+        this.worldHeight = worldHeight;
+        this.tilesX = tilesX;
+        this.tilesY = tilesY;
+        this.id = id;
+        tileX = id % tilesX;
+        tileY = id / tilesX;
+        x = (int) ((long) worldWidth * tileX / tilesX);
+        y = (int) ((long) worldHeight * tileY / tilesY);
+        width = (int) ((long) worldWidth * (tileX + 1) / tilesX) - x;
+        height = (int) ((long) worldHeight * (tileY + 1) / tilesY) - y;
+    }
+
+    static int opposite(int direction) {
+        return DIRECTIONS - 1 - direction;
+    }
+
+    /**
+     * @return id of the neighbour partition in the given direction, -1 beyond the borders of the world
+     */
+    int neighbour(int direction) {
+        int nx = tileX + DX[direction];
+        int ny = tileY + DY[direction];
+        if (nx < 0 || ny < 0 || nx >= tilesX || ny >= tilesY) {
+            return -1;
+        }
+        return ny * tilesX + nx;
+    }
+
+    /* the following regions are in coordinates of a board with a border of one cell around the partition */
+
+    /** first column of the cells sent to the neighbour in the given direction */
+    int edgeX(int direction) {
+        return DX[direction] > 0 ? width : 1;
+    }
+
+    /** first row of the cells sent to the neighbour in the given direction */
+    int edgeY(int direction) {
+        return DY[direction] > 0 ? height : 1;
+    }
+
+    /** first column of the border cells received from the neighbour in the given direction */
+    int haloX(int direction) {
+        return DX[direction] < 0 ? 0 : DX[direction] > 0 ? width + 1 : 1;
+    }
+
+    /** first row of the border cells received from the neighbour in the given direction */
+    int haloY(int direction) {
+        return DY[direction] < 0 ? 0 : DY[direction] > 0 ? height + 1 : 1;
+    }
+
+    /** count of columns exchanged with the neighbour in the given direction */
+    int edgeWidth(int direction) {
+        return DX[direction] == 0 ? width : 1;
+    }
+
+    /** count of rows exchanged with the neighbour in the given direction */
+    int edgeHeight(int direction) {
+        return DY[direction] == 0 ? height : 1;
+    }
+}
@@ -0,0 +1,261 @@
+/******************************************************************************
+ *  Droid of Life, an open source Android game based on Conway's Game of Life *
+ *  Copyright (C) 2012  Christian Ulrich <chrulri@gmail.com>                  *
+ *                                                                            *
+ *  This program is free software: you can redistribute it and/or modify      *
+ *  it under the terms of the GNU General Public License as published by      *
+ *  the Free Software Foundation, either version 3 of the License, or         *
+ *  (at your option) any later version.                                       *
+ *                                                                            *
+ *  This program is distributed in the hope that it will be useful,           *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of            *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             *
+ *  GNU General Public License for more details.                              *
+ *                                                                            *
+ *  You should have received a copy of the GNU General Public License         *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.     *
+ ******************************************************************************/
+
+package com.chrulri.droidoflife;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Droid of Life - splits a world into partitions simulated by separate {@link PartitionWorker} processes which
+ * exchange their borders with each other every generation.
+ * <p>
+ * Usage: <code>PartitionCoordinator &lt;width&gt; &lt;height&gt; &lt;tilesX&gt; &lt;tilesY&gt;
+ * &lt;generations&gt; [-seed n] [-density percent] [-port n] [-spawn] [-verify]</code>
+ * <ul>
+ * <li>-spawn starts the workers as local JVMs, otherwise they must be started by hand</li>
+ * <li>-verify compares the result with a world simulated by this process alone</li>
+ * </ul>
+ */
+public final class PartitionCoordinator {
+    static final String TAG = PartitionCoordinator.class.getSimpleName();
+
+    private final int mWorldWidth;
+    private final int mWorldHeight;
+    private final int mTilesX;
+    private final int mTilesY;
+    private final long mSeed;
+    private final int mDensity;
+    private final Socket[] mSockets;
+    private final DataInputStream[] mIns;
+    private final DataOutputStream[] mOuts;
+
+    private PartitionCoordinator(int worldWidth, int worldHeight, int tilesX, int tilesY, long seed, int density) {
+        // fail early on invalid geometry
+        new Partition(worldWidth, worldHeight, tilesX, tilesY, 0);
+        mWorldWidth = worldWidth;
+        mWorldHeight = worldHeight;
+        mTilesX = tilesX;
+        mTilesY = tilesY;
+        mSeed = seed;
+        mDensity = density;
+        int count = tilesX * tilesY;
+        mSockets = new Socket[count];
+        mIns = new DataInputStream[count];
+        mOuts = new DataOutputStream[count];
+    }
+
+    /**
+     * waits for all workers and connects them with each other
+     */
+    private void setup(ServerSocket server) throws IOException {
+        final int count = mSockets.length;
+        int[] ports = new int[count];
+        for (int id = 0; id < count; id++) {
+            Socket socket = server.accept();
+            socket.setTcpNoDelay(true);
+            mSockets[id] = socket;
+            mIns[id] = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            mOuts[id] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataOutputStream out = mOuts[id];
+            out.writeInt(mWorldWidth);
+            out.writeInt(mWorldHeight);
+            out.writeInt(mTilesX);
+            out.writeInt(mTilesY);
+            out.writeInt(id);
+            out.writeLong(mSeed);
+            out.writeInt(mDensity);
+            out.flush();
+            ports[id] = mIns[id].readInt();
+            log("worker %d connected", id);
+        }
+        for (DataOutputStream out : mOuts) {
+            for (int port : ports) {
+                out.writeInt(port);
+            }
+            out.flush();
+        }
+        for (int id = 0; id < count; id++) {
+            if (mIns[id].readInt() != id) {
+                throw new IOException("worker " + id + " failed to connect to its neighbours");
+            }
+        }
+    }
+
+    /**
+     * @return population of the world after the given generations
+     */
+    private long run(int generations) throws IOException {
+        for (DataOutputStream out : mOuts) {
+            out.writeInt(PartitionWorker.CMD_RUN);
+            out.writeInt(generations);
+            out.flush();
+        }
+        long population = 0;
+        for (DataInputStream in : mIns) {
+            population += in.readLong();
+        }
+        return population;
+    }
+
+    /**
+     * @return the whole world assembled of all partitions
+     */
+    private LifeBoard dump() throws IOException {
+        LifeBoard world = new LifeBoard(mWorldWidth, mWorldHeight);
+        for (int id = 0; id < mSockets.length; id++) {
+            Partition p = new Partition(mWorldWidth, mWorldHeight, mTilesX, mTilesY, id);
+            mOuts[id].writeInt(PartitionWorker.CMD_DUMP);
+            mOuts[id].flush();
+            byte[] cells = new byte[(p.width * p.height + 7) / 8];
+            mIns[id].readFully(cells);
+            PartitionLink.unpack(ByteBuffer.wrap(cells), world, p.x, p.y, p.width, p.height);
+        }
+        return world;
+    }
+
+    private void quit() {
+        for (int id = 0; id < mSockets.length; id++) {
+            try {
+                mOuts[id].writeInt(PartitionWorker.CMD_QUIT);
+                mOuts[id].flush();
+                mSockets[id].close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /* ************************************************************************************************************* */
+
+    private static void log(String msg, Object... args) {
+        System.out.println(TAG + ": " + String.format(msg, args));
+    }
+
+    private static Process spawnWorker(int port) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                PartitionWorker.class.getName(), "localhost", String.valueOf(port));
+        builder.redirectErrorStream(true);
+        final Process process = builder.start();
+        // forward output of the worker
+        Thread pump = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                InputStream in = process.getInputStream();
+                byte[] buffer = new byte[1024];
+                try {
+                    int len;
+                    while ((len = in.read(buffer)) >= 0) {
+                        System.out.write(buffer, 0, len);
+                    }
+                } catch (IOException e) {
+                    // worker is gone
+                }
+            }
+        });
+        pump.setDaemon(true);
+        pump.start();
+        return process;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 5) {
+            System.err.println("usage: " + TAG + " <width> <height> <tilesX> <tilesY> <generations>"
+                    + " [-seed n] [-density percent] [-port n] [-spawn] [-verify]");
+            System.exit(1);
+        }
+        int width = Integer.parseInt(args[0]);
+        int height = Integer.parseInt(args[1]);
+        int tilesX = Integer.parseInt(args[2]);
+        int tilesY = Integer.parseInt(args[3]);
+        int generations = Integer.parseInt(args[4]);
+        long seed = System.nanoTime();
+        int density = LifeSeeder.density(Setup.DEFAULT_DENSITY_PERCENT / 100f);
+        int port = 0;
+        boolean spawn = false;
+        boolean verify = false;
+        for (int i = 5; i < args.length; i++) {
+            if ("-seed".equals(args[i])) {
+                seed = Long.parseLong(args[++i]);
+            } else if ("-density".equals(args[i])) {
+                density = LifeSeeder.density(Integer.parseInt(args[++i]) / 100f);
+            } else if ("-port".equals(args[i])) {
+                port = Integer.parseInt(args[++i]);
+            } else if ("-spawn".equals(args[i])) {
+                spawn = true;
+            } else if ("-verify".equals(args[i])) {
+                verify = true;
+            } else {
+                throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+
+        PartitionCoordinator coordinator = new PartitionCoordinator(width, height, tilesX, tilesY, seed, density);
+        ServerSocket server = new ServerSocket(port, tilesX * tilesY, InetAddress.getByName(null));
+        log("%dx%d world (seed %d) in %dx%d partitions, waiting for workers on port %d", width, height, seed,
+                tilesX, tilesY, server.getLocalPort());
+        Process[] workers = new Process[spawn ? tilesX * tilesY : 0];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = spawnWorker(server.getLocalPort());
+        }
+
+        boolean success = true;
+        try {
+            coordinator.setup(server);
+            server.close();
+
+            long start = System.currentTimeMillis();
+            long population = coordinator.run(generations);
+            log("%d generations in %d ms, population %d", generations, System.currentTimeMillis() - start,
+                    population);
+
+            if (verify) {
+                LifeBoard world = coordinator.dump();
+                LifeBoard reference = new LifeBoard(width, height);
+                LifeBoard successor = new LifeBoard(width, height);
+                reference.seed(seed, density);
+                for (int i = 0; i < generations; i++) {
+                    successor.step(reference);
+                    LifeBoard tmp = reference;
+                    reference = successor;
+                    successor = tmp;
+                }
+                success = Arrays.equals(world.cells, reference.cells);
+                log(success ? "verified against single process simulation"
+                        : "MISMATCH with single process simulation");
+            }
+        } finally {
+            coordinator.quit();
+            for (Process worker : workers) {
+                worker.waitFor();
+            }
+        }
+        System.exit(success ? 0 : 1);
+    }
+}
@@ -0,0 +1,175 @@
+/******************************************************************************
+ *  Droid of Life, an open source Android game based on Conway's Game of Life *
+ *  Copyright (C) 2012  Christian Ulrich <chrulri@gmail.com>                  *
+ *                                                                            *
+ *  This program is free software: you can redistribute it and/or modify      *
+ *  it under the terms of the GNU General Public License as published by      *
+ *  the Free Software Foundation, either version 3 of the License, or         *
+ *  (at your option) any later version.                                       *
+ *                                                                            *
+ *  This program is distributed in the hope that it will be useful,           *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of            *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             *
+ *  GNU General Public License for more details.                              *
+ *                                                                            *
+ *  You should have received a copy of the GNU General Public License         *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.     *
+ ******************************************************************************/
+
+package com.chrulri.droidoflife;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Droid of Life - socket connection to one neighbour partition, exchanging one border of cells per generation.
+ * <p>
+ * Wire format of a message: generation (int, big endian) followed by the cells of the border row by row, eight
+ * cells per byte, least significant bit first. Messages are received in the background, so the sender can go on
+ * computing while the neighbour's border is on its way.
+ */
+final class PartitionLink implements Runnable {
+    private static final ByteBuffer CLOSED = ByteBuffer.allocate(0);
+
+    final int direction;
+    private final SocketChannel mChannel;
+    private final ByteBuffer mOut;
+    private final BlockingQueue<ByteBuffer> mReceived = new ArrayBlockingQueue<ByteBuffer>(3);
+    private final BlockingQueue<ByteBuffer> mFree = new ArrayBlockingQueue<ByteBuffer>(2);
+    private volatile IOException mError;
+
+    /**
+     * @param direction direction of the neighbour
+     * @param cells count of cells exchanged per generation
+     */
+    PartitionLink(SocketChannel channel, int direction, int cells) {
+        this.direction = direction;
+        mChannel = channel;
+        int size = 4 + (cells + 7) / 8;
+        mOut = ByteBuffer.allocateDirect(size);
+        mFree.add(ByteBuffer.allocateDirect(size));
+        mFree.add(ByteBuffer.allocateDirect(size));
+    }
+
+    void start() {
+        Thread thread = new Thread(this, "PartitionLink-" + direction);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void close() throws IOException {
+        mChannel.close();
+    }
+
+    /**
+     * sends a region of the board to the neighbour
+     */
+    void send(int generation, LifeBoard board, int x, int y, int width, int height) throws IOException {
+        mOut.clear();
+        mOut.putInt(generation);
+        pack(board, x, y, width, height, mOut);
+        mOut.flip();
+        while (mOut.hasRemaining()) {
+            mChannel.write(mOut);
+        }
+    }
+
+    /**
+     * waits for the neighbour's border of the given generation and writes it into a region of the board
+     */
+    void receive(int generation, LifeBoard board, int x, int y, int width, int height) throws IOException {
+        ByteBuffer in;
+        try {
+            in = mReceived.take();
+        } catch (InterruptedException e) {
+            throw new IOException("interrupted while waiting for generation " + generation);
+        }
+        if (in == CLOSED) {
+            IOException e = new IOException("link " + direction + " closed");
+            e.initCause(mError);
+            throw e;
+        }
+        try {
+            int received = in.getInt();
+            if (received != generation) {
+                throw new IOException("expected generation " + generation + " but received " + received);
+            }
+            unpack(in, board, x, y, width, height);
+        } finally {
+            mFree.add(in);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                ByteBuffer in = mFree.take();
+                in.clear();
+                readFully(mChannel, in);
+                in.flip();
+                mReceived.put(in);
+            }
+        } catch (IOException e) {
+            mError = e;
+        } catch (InterruptedException e) {
+            // exit
+        }
+        mReceived.add(CLOSED);
+    }
+
+    /* ************************************************************************************************************* */
+
+    static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    /**
+     * packs a region of the board row by row, eight cells per byte
+     */
+    static void pack(LifeBoard board, int x, int y, int width, int height, ByteBuffer out) {
+        int bits = 0;
+        int count = 0;
+        for (int row = y; row < y + height; row++) {
+            for (int col = x; col < x + width; col++) {
+                if (board.get(col, row)) {
+                    bits |= 1 << count;
+                }
+                if (++count == 8) {
+                    out.put((byte) bits);
+                    bits = 0;
+                    count = 0;
+                }
+            }
+        }
+        if (count > 0) {
+            out.put((byte) bits);
+        }
+    }
+
+    /**
+     * counterpart of {@link #pack(LifeBoard, int, int, int, int, ByteBuffer)}
+     */
+    static void unpack(ByteBuffer in, LifeBoard board, int x, int y, int width, int height) {
+        int bits = 0;
+        int count = 8;
+        for (int row = y; row < y + height; row++) {
+            for (int col = x; col < x + width; col++) {
+                if (count == 8) {
+                    bits = in.get();
+                    count = 0;
+                }
+                board.set(col, row, (bits & (1 << count++)) != 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/******************************************************************************
+ *  Droid of Life, an open source Android game based on Conway's Game of Life *
+ *  Copyright (C) 2012  Christian Ulrich <chrulri@gmail.com>                  *
+ *                                                                            *
+ *  This program is free software: you can redistribute it and/or modify      *
+ *  it under the terms of the GNU General Public License as published by      *
+ *  the Free Software Foundation, either version 3 of the License, or         *
+ *  (at your option) any later version.                                       *
+ *                                                                            *
+ *  This program is distributed in the hope that it will be useful,           *
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of            *
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the             *
+ *  GNU General Public License for more details.                              *
+ *                                                                            *
+ *  You should have received a copy of the GNU General Public License         *
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.     *
+ ******************************************************************************/
+
+package com.chrulri.droidoflife;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Droid of Life - worker process simulating one partition of a world, controlled by a
+ * {@link PartitionCoordinator}. Usage: <code>PartitionWorker &lt;coordinator host&gt; &lt;coordinator port&gt;</code>
+ */
+public final class PartitionWorker {
+    static final String TAG = PartitionWorker.class.getSimpleName();
+
+    /* commands of the coordinator */
+    static final int CMD_RUN = 1;
+    static final int CMD_DUMP = 2;
+    static final int CMD_QUIT = 3;
+
+    private final Partition mPartition;
+    private final PartitionLink[] mLinks = new PartitionLink[Partition.DIRECTIONS];
+    /** partition with a border of one cell holding the neighbours' cells */
+    private LifeBoard mBoard;
+    private LifeBoard mSuccessor;
+    private int mGeneration;
+
+    private PartitionWorker(Partition partition, long seed, int density) {
+        mPartition = partition;
+        mBoard = new LifeBoard(partition.width + 2, partition.height + 2);
+        mSuccessor = new LifeBoard(partition.width + 2, partition.height + 2);
+        mBoard.seed(seed, density, partition.worldWidth, partition.x, partition.y, 1);
+        mGeneration = 0;
+    }
+
+    /**
+     * connects to all neighbours, the partition with the lower id connects to the one with the higher id
+     * 
+     * @param server channel accepting connections of neighbours
+     * @param ports halo ports of all partitions
+     */
+    private void connect(ServerSocketChannel server, int[] ports) throws IOException {
+        final Partition p = mPartition;
+        int accepts = 0;
+        for (int d = 0; d < Partition.DIRECTIONS; d++) {
+            int neighbour = p.neighbour(d);
+            if (neighbour < 0)
+                continue;
+            if (neighbour < p.id) {
+                accepts++;
+                continue;
+            }
+            SocketChannel channel = SocketChannel.open(new InetSocketAddress(InetAddress.getByName(null),
+                    ports[neighbour]));
+            channel.socket().setTcpNoDelay(true);
+            ByteBuffer hello = ByteBuffer.allocate(4);
+            hello.putInt(p.id).flip();
+            while (hello.hasRemaining()) {
+                channel.write(hello);
+            }
+            mLinks[d] = new PartitionLink(channel, d, p.edgeWidth(d) * p.edgeHeight(d));
+        }
+        while (accepts-- > 0) {
+            SocketChannel channel = server.accept();
+            channel.socket().setTcpNoDelay(true);
+            ByteBuffer hello = ByteBuffer.allocate(4);
+            PartitionLink.readFully(channel, hello);
+            int neighbour = hello.getInt(0);
+            int d = 0;
+            while (d < Partition.DIRECTIONS && p.neighbour(d) != neighbour) {
+                d++;
+            }
+            if (d == Partition.DIRECTIONS || mLinks[d] != null) {
+                throw new IOException("unexpected neighbour " + neighbour);
+            }
+            mLinks[d] = new PartitionLink(channel, d, p.edgeWidth(d) * p.edgeHeight(d));
+        }
+        for (PartitionLink link : mLinks) {
+            if (link != null) {
+                link.start();
+            }
+        }
+    }
+
+    /**
+     * iterate through one generation of life, exchanging borders while the inner cells are computed
+     */
+    private void iterate() throws IOException {
+        final Partition p = mPartition;
+        final int w = p.width;
+        final int h = p.height;
+        final LifeBoard board = mBoard;
+        final LifeBoard next = mSuccessor;
+
+        // send own borders first, so the neighbours get them as early as possible
+        for (PartitionLink link : mLinks) {
+            if (link != null) {
+                int d = link.direction;
+                link.send(mGeneration, board, p.edgeX(d), p.edgeY(d), p.edgeWidth(d), p.edgeHeight(d));
+            }
+        }
+
+        // inner rows do not depend on the neighbours' rows (their outer cells are fixed below)
+        if (h > 2) {
+            next.stepRows(board, 2, h);
+        }
+
+        // receive neighbours' borders, nothing lives beyond the world
+        for (int x = 0; x < w + 2; x++) {
+            board.set(x, 0, false);
+            board.set(x, h + 1, false);
+        }
+        for (int y = 1; y <= h; y++) {
+            board.set(0, y, false);
+            board.set(w + 1, y, false);
+        }
+        for (PartitionLink link : mLinks) {
+            if (link != null) {
+                int d = link.direction;
+                link.receive(mGeneration, board, p.haloX(d), p.haloY(d), p.edgeWidth(d), p.edgeHeight(d));
+            }
+        }
+
+        // outer cells
+        next.stepRows(board, 1, 2);
+        if (h > 1) {
+            next.stepRows(board, h, h + 1);
+        }
+        for (int y = 2; y < h; y++) {
+            next.stepCell(board, 1, y);
+            next.stepCell(board, w, y);
+        }
+
+        mSuccessor = board;
+        mBoard = next;
+        mGeneration++;
+    }
+
+    private long population() {
+        long population = 0;
+        for (int y = 1; y <= mPartition.height; y++) {
+            for (int x = 1; x <= mPartition.width; x++) {
+                if (mBoard.get(x, y))
+                    population++;
+            }
+        }
+        return population;
+    }
+
+    private void close() {
+        for (PartitionLink link : mLinks) {
+            if (link != null) {
+                try {
+                    link.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /* ************************************************************************************************************* */
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: " + TAG + " <coordinator host> <coordinator port>");
+            System.exit(1);
+        }
+        Socket control = new Socket(args[0], Integer.parseInt(args[1]));
+        control.setTcpNoDelay(true);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(control.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(control.getOutputStream()));
+
+        // configuration
+        int worldWidth = in.readInt();
+        int worldHeight = in.readInt();
+        int tilesX = in.readInt();
+        int tilesY = in.readInt();
+        int id = in.readInt();
+        long seed = in.readLong();
+        int density = in.readInt();
+        Partition partition = new Partition(worldWidth, worldHeight, tilesX, tilesY, id);
+        PartitionWorker worker = new PartitionWorker(partition, seed, density);
+
+        // tell where the neighbours find us
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress(InetAddress.getByName(null), 0));
+        out.writeInt(server.socket().getLocalPort());
+        out.flush();
+
+        int[] ports = new int[tilesX * tilesY];
+        for (int i = 0; i < ports.length; i++) {
+            ports[i] = in.readInt();
+        }
+        worker.connect(server, ports);
+        server.close();
+        out.writeInt(partition.id);
+        out.flush();
+
+        try {
+            while (true) {
+                switch (in.readInt()) {
+                    case CMD_RUN:
+                        int generations = in.readInt();
+                        while (generations-- > 0) {
+                            worker.iterate();
+                        }
+                        out.writeLong(worker.population());
+                        out.flush();
+                        break;
+                    case CMD_DUMP:
+                        ByteBuffer cells = ByteBuffer.allocate((partition.width * partition.height + 7) / 8);
+                        PartitionLink.pack(worker.mBoard, 1, 1, partition.width, partition.height, cells);
+                        out.write(cells.array());
+                        out.flush();
+                        break;
+                    case CMD_QUIT:
+                        return;
+                    default:
+                        throw new IOException("unknown command");
+                }
+            }
+        } finally {
+            worker.close();
+            control.close();
+        }
+    }
+}
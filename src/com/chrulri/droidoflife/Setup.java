@@ -28,9 +28,33 @@ final class Setup {
 
     static final long ITERATION_DELAY_MS = 100;
 
+    /** duration of one display frame, gestures redraw at most once per frame */
+    static final long FRAME_INTERVAL_MS = 16;
+
     static final Uri HELP_VIDEO_URI = Uri
             .parse("http://www.youtube.com/watch?v=u2Ydzz_wAjg");
 
+    /** maximum count of pixels to render the world into, larger worlds are scaled down */
+    static final int MAX_BITMAP_SIZE = 2048 * 2048;
+
+    /** worlds whose cell buffers exceed this fraction of the memory class are backed by a file */
+    static final float MAX_MEMORY_WORLD_RATIO = 0.5f;
+
+    static final String WORLD_STORAGE_FILE = "world.bin";
+
+    static final String RECORDING_FILE = "recording.dol";
+    static final int RECORDING_KEYFRAME_INTERVAL = 100;
+
+    static final int DEFAULT_WORLD_WIDTH = 200;
+    static final int DEFAULT_WORLD_HEIGHT = 100;
+    static final int DEFAULT_DENSITY_PERCENT = 20;
+
     static final String PREF_SHOW_DEATHBIRTH = "show_deathbirth";
+    static final String PREF_WORLD_WIDTH = "world_width";
+    static final String PREF_WORLD_HEIGHT = "world_height";
+    static final String PREF_SEED = "seed";
+    static final String PREF_DENSITY = "density";
+    static final String PREF_RECORD = "record";
+    static final String PREF_FRAME_STATS = "frame_stats";
 
 }